@@ -0,0 +1,133 @@
+package jacs.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import jacs.config.MicrocontrollerConnection;
+import jacs.config.SimulatedController;
+import jacs.player.AnimatronicsShowPlayer;
+import jacs.player.ExecutionMode;
+import jacs.player.FormattedShowData;
+import jacs.player.ShowScheduler;
+import jmcc.Microcontroller;
+
+/**
+ * Plays the same show on many simulated characters at once and compares the ways a player can be run: a platform
+ * thread per output, a virtual thread per output, and a {@link ShowScheduler} shared by every character.
+ * <p>
+ * For each mode it reports the threads alive while the shows play, the heap used per character, and how late servo
+ * frames reach the serial port compared with their deadlines. Each character drives six servos on a Micro Maestro
+ * whose {@link SimulatedController} takes as long to write as a 115200 baud line. A write holds its thread for that long, so a
+ * shared scheduler needs enough pool threads to cover the write time of every character within one frame.
+ * <p>
+ * Usage: <code>CharacterLoadBenchmark [characters [seconds [poolThreads]]]</code>, 100 characters for 5 seconds with
+ * {@link ShowScheduler#DEFAULT_POOL_THREADS} pool threads by default.
+ */
+public class CharacterLoadBenchmark {
+
+	private static final int FRAMES_PER_SECOND = 30;
+	private static final int SERVOS_PER_CHARACTER = 6;
+	private static final int BAUD_RATE = 115200;
+
+	public static void main(String[] args) throws Exception {
+		int characters = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int poolThreads = args.length > 2 ? Integer.parseInt(args[2]) : ShowScheduler.DEFAULT_POOL_THREADS;
+		FormattedShowData show = createShow(seconds * FRAMES_PER_SECOND);
+
+		System.out.println(characters + " characters, " + seconds + " s show");
+		System.out.println("mode                  threads  heap KB/char  mean late us  p99 late us  max late us");
+
+		run("platform threads", characters, show, ExecutionMode.PLATFORM_THREADS, null);
+
+		if (ExecutionMode.isVirtualThreadsSupported())
+			run("virtual threads", characters, show, ExecutionMode.VIRTUAL_THREADS, null);
+		else
+			System.out.println("virtual threads       not supported by this JVM");
+
+		ShowScheduler scheduler = new ShowScheduler(poolThreads);
+		run("shared scheduler/" + poolThreads, characters, show, ExecutionMode.PLATFORM_THREADS, scheduler);
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Plays the show on every character in one mode and prints the results.
+	 */
+	private static void run(String label, int characters, FormattedShowData show, ExecutionMode mode,
+			ShowScheduler scheduler) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long heapBefore = usedHeap();
+
+		SimulatedController[] ports = new SimulatedController[characters];
+		long[] startTimes = new long[characters];
+		for (int i = 0; i < characters; i++) {
+			MicrocontrollerConnection mc = new MicrocontrollerConnection(Microcontroller.POLOLU_MICRO_MAESTRO);
+			mc.setControllerConnectionFromCardName(Microcontroller.POLOLU_MICRO_MAESTRO);
+			ports[i] = new SimulatedController("SIM" + i, BAUD_RATE);
+			mc.setTransport(ports[i]);
+			mc.setBaudRate(BAUD_RATE);
+
+			AnimatronicsShowPlayer player = new AnimatronicsShowPlayer(mc);
+			player.setExecutionMode(mode);
+			player.setShowScheduler(scheduler);
+			startTimes[i] = System.nanoTime();
+			player.playShow(show);
+		}
+
+		// Sample once every show is under way
+		Thread.sleep(1000);
+		int threadCount = threads.getThreadCount();
+		long heapPerCharacter = (usedHeap() - heapBefore) / characters;
+
+		for (SimulatedController port : ports)
+			while (port.isOpen())
+				Thread.sleep(10);
+
+		// Frame k of a character is due k frame periods after its show was started
+		long[] lateness = new long[0];
+		for (int i = 0; i < characters; i++) {
+			long[] writes = ports[i].getWriteTimes();
+			int offset = lateness.length;
+			lateness = Arrays.copyOf(lateness, offset + writes.length);
+			for (int k = 0; k < writes.length; k++)
+				lateness[offset + k] = Math.max(0, writes[k] - startTimes[i] - k * 1000000000L / FRAMES_PER_SECOND);
+		}
+		Arrays.sort(lateness);
+		long total = 0;
+		for (long late : lateness)
+			total += late;
+
+		System.out.println(String.format("%-20s %8d %13d %13d %12d %12d", label, threadCount,
+				heapPerCharacter / 1024, total / Math.max(1, lateness.length) / 1000,
+				percentile(lateness, 0.99) / 1000, percentile(lateness, 1.0) / 1000));
+	}
+
+	/**
+	 * @return a show of smooth, distinct motion on every servo
+	 */
+	private static FormattedShowData createShow(int frames) throws Exception {
+		byte[] pins = new byte[SERVOS_PER_CHARACTER];
+		byte[][] motions = new byte[SERVOS_PER_CHARACTER][frames];
+		for (int servo = 0; servo < SERVOS_PER_CHARACTER; servo++) {
+			pins[servo] = (byte) servo;
+			for (int frame = 0; frame < frames; frame++)
+				motions[servo][frame] = (byte) (127 + 100 * Math.sin((frame + servo * 7) / 10.0));
+		}
+		return new FormattedShowData("", pins, motions, new byte[0]);
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		Thread.sleep(100);
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0)
+			return 0;
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+	}
+
+}
@@ -0,0 +1,261 @@
+package jacs.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import jacs.config.MicrocontrollerConnection;
+import jacs.config.SimulatedController;
+import jacs.player.AnimatronicsShowPlayer;
+import jacs.player.FormattedShowData;
+import jacs.player.Interpolation;
+import jacs.player.ShowStatistics;
+import jacs.utilities.AnimatronicsUtilities;
+import jmcc.Microcontroller;
+
+/**
+ * Times the paths that loading and playing a show spend most of their time in, so that a change to one of them can be
+ * measured rather than guessed at:
+ * <ul>
+ * <li>parsing a motion CSV file with {@link AnimatronicsUtilities#getBytes(String, int)}</li>
+ * <li>building a set target command with {@link Microcontroller#buildSetTargetCommand(byte, byte)} for each kind of
+ * controller, and encoding the same command into a buffer with
+ * {@link Microcontroller#encodeSetTarget(byte, byte, byte[], int)} as the player does</li>
+ * <li>sending the newest live input of every servo with
+ * {@link MicrocontrollerConnection#setTargets(byte[], int, int)}, the write the servo player makes for live input</li>
+ * <li>starting a show, which compiles its motions to the controller's wire format, up to its first serial write</li>
+ * <li>playing the show end to end against a {@link SimulatedController}, reported from its {@link ShowStatistics}</li>
+ * </ul>
+ * Each measure is warmed up first and then run in rounds of about {@link #ROUND_MILLIS}; the fastest and the median
+ * round are printed.
+ * <p>
+ * Usage: <code>HotPathBenchmark [servos [seconds [baudRate [framesPerSecond]]]]</code>, 12 servos and a 10 second show
+ * over a 115200 baud line at 30 frames per second by default. Motions are authored at
+ * {@link FormattedShowData#DEFAULT_FRAMES_PER_SECOND}, as in a CSV file, and interpolated to any other output rate.
+ */
+public class HotPathBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	private static final long ROUND_MILLIS = 200;
+
+	private static final String[] CONTROLLERS = { Microcontroller.POLOLU_MICRO_MAESTRO,
+			Microcontroller.POLOLU_MINI_MAESTRO_24, Microcontroller.ARDUINO_UNO };
+
+	// Results are added up here so the compiler cannot drop the work that produced them
+	private static long sink = 0;
+
+	/**
+	 * One timed piece of work.
+	 */
+	private interface Operation {
+		/**
+		 * @return any value derived from the work done
+		 */
+		long run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int servos = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int baudRate = args.length > 2 ? Integer.parseInt(args[2]) : 115200;
+		int framesPerSecond = args.length > 3 ? Integer.parseInt(args[3])
+				: FormattedShowData.DEFAULT_FRAMES_PER_SECOND;
+		int frames = seconds * FormattedShowData.DEFAULT_FRAMES_PER_SECOND;
+
+		final byte[][] motions = createMotions(servos, frames);
+		final byte[] pins = new byte[servos];
+		for (int servo = 0; servo < servos; servo++)
+			pins[servo] = (byte) servo;
+
+		System.out.println(servos + " servos, " + frames + " frames played as " + seconds * framesPerSecond + " at "
+				+ framesPerSecond + " frames per second, " + baudRate + " baud");
+		System.out.println("benchmark                         best ns/op  median ns/op");
+
+		final File csv = writeCsv(motions);
+		final int servoCount = servos;
+		measure("csv parse (per frame)", frames, new Operation() {
+			@Override
+			public long run() throws Exception {
+				return AnimatronicsUtilities.getBytes(csv.getPath(), servoCount)[0].length;
+			}
+		});
+		csv.delete();
+
+		for (String controller : CONTROLLERS) {
+			final Microcontroller mc = createConnection(controller, 0).getMicrocontroller();
+			measure("set target " + controller, servos * frames, new Operation() {
+				@Override
+				public long run() {
+					long total = 0;
+					for (int frame = 0; frame < motions[0].length; frame++) {
+						for (int servo = 0; servo < pins.length; servo++) {
+							byte[] command = mc.buildSetTargetCommand(pins[servo], motions[servo][frame]);
+							total += command[command.length - 1];
+						}
+					}
+					return total;
+				}
+			});
+
+			final byte[] buffer = new byte[servos * mc.getSetTargetCommandLength()];
+			measure("encode " + controller, servos * frames, new Operation() {
+				@Override
+				public long run() {
+					long total = 0;
+					for (int frame = 0; frame < motions[0].length; frame++) {
+						int offset = 0;
+						for (int servo = 0; servo < pins.length; servo++)
+							offset += mc.encodeSetTarget(pins[servo], motions[servo][frame], buffer, offset);
+						total += buffer[offset - 1];
+					}
+					return total;
+				}
+			});
+		}
+
+		final MicrocontrollerConnection live = createConnection(Microcontroller.POLOLU_MINI_MAESTRO_24, 0);
+		final byte[] targets = new byte[2 * servos];
+		for (int servo = 0; servo < servos; servo++)
+			targets[2 * servo] = pins[servo];
+		((SimulatedController) live.getTransport()).setLogging(false);
+		live.openPort();
+		measure("live input, all servos", 1, new Operation() {
+			@Override
+			public long run() throws Exception {
+				targets[1]++;
+				live.setTargets(targets, 0, pins.length);
+				return targets[1];
+			}
+		});
+		live.closePort();
+
+		FormattedShowData show = new FormattedShowData("", pins, motions, new byte[0]);
+		measureShowStart(show, framesPerSecond);
+		playShow(show, baudRate, framesPerSecond);
+		System.out.println("sink " + sink);
+	}
+
+	/**
+	 * Runs an operation in timed rounds and prints the time per operation.
+	 *
+	 * @param operationsPerRun
+	 *            operations done by each call of the operation
+	 */
+	private static void measure(String label, int operationsPerRun, Operation operation) throws Exception {
+		double[] rounds = new double[MEASURED_ROUNDS];
+		for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+			long runs = 0;
+			long start = System.nanoTime();
+			long end = start + ROUND_MILLIS * 1000000L;
+			long now;
+			do {
+				sink += operation.run();
+				runs++;
+			} while ((now = System.nanoTime()) < end);
+			if (round >= 0)
+				rounds[round] = (double) (now - start) / runs / operationsPerRun;
+		}
+		Arrays.sort(rounds);
+		System.out.println(String.format("%-33s %10.1f %13.1f", label, rounds[0], rounds[MEASURED_ROUNDS / 2]));
+	}
+
+	/**
+	 * Starts the show repeatedly and prints the time from the call to {@link AnimatronicsShowPlayer#playShow} until
+	 * the first bytes reach the serial port. Only that time is counted, not the time taken to stop the show again.
+	 */
+	private static void measureShowStart(FormattedShowData show, int framesPerSecond) throws Exception {
+		double[] rounds = new double[MEASURED_ROUNDS];
+		for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+			MicrocontrollerConnection mc = createConnection(Microcontroller.POLOLU_MINI_MAESTRO_24, 0);
+			SimulatedController port = (SimulatedController) mc.getTransport();
+			AnimatronicsShowPlayer player = createPlayer(mc, framesPerSecond);
+			long start = System.nanoTime();
+			player.playShow(show);
+			while (port.getBytesWritten() == 0)
+				Thread.yield();
+			if (round >= 0)
+				rounds[round] = System.nanoTime() - start;
+
+			player.stopShow();
+			while (port.isOpen())
+				Thread.sleep(1);
+		}
+		Arrays.sort(rounds);
+		System.out.println(String.format("%-33s %10.1f %13.1f", "show start to first write", rounds[0],
+				rounds[MEASURED_ROUNDS / 2]));
+	}
+
+	/**
+	 * Plays the whole show in real time and prints its statistics.
+	 */
+	private static void playShow(FormattedShowData show, int baudRate, int framesPerSecond) throws Exception {
+		MicrocontrollerConnection mc = createConnection(Microcontroller.POLOLU_MINI_MAESTRO_24, baudRate);
+		SimulatedController port = (SimulatedController) mc.getTransport();
+		AnimatronicsShowPlayer player = createPlayer(mc, framesPerSecond);
+		player.playShow(show);
+		while (!port.isOpen())
+			Thread.sleep(1);
+		while (port.isOpen())
+			Thread.sleep(10);
+
+		System.out.println();
+		System.out.println("end to end, " + port.getBytesWritten() + " bytes written, " + player.getLateFrames()
+				+ " late frames");
+		System.out.println(player.getShowStatistics());
+	}
+
+	/**
+	 * @return a player that sends the given number of frames each second, interpolating shows authored at another rate
+	 */
+	private static AnimatronicsShowPlayer createPlayer(MicrocontrollerConnection mc, int framesPerSecond)
+			throws Exception {
+		AnimatronicsShowPlayer player = new AnimatronicsShowPlayer(mc);
+		player.setInterpolation(framesPerSecond == FormattedShowData.DEFAULT_FRAMES_PER_SECOND ? Interpolation.NONE
+				: Interpolation.LINEAR, framesPerSecond);
+		return player;
+	}
+
+	private static MicrocontrollerConnection createConnection(String controller, int baudRate) {
+		MicrocontrollerConnection mc = new MicrocontrollerConnection(controller);
+		mc.setControllerConnectionFromCardName(controller);
+		mc.setTransport(new SimulatedController("SIM", baudRate));
+		mc.setBaudRate(baudRate > 0 ? baudRate : MicrocontrollerConnection.AUTO_BAUD_RATE);
+		return mc;
+	}
+
+	/**
+	 * @return smooth, distinct motion on every servo
+	 */
+	private static byte[][] createMotions(int servos, int frames) {
+		byte[][] motions = new byte[servos][frames];
+		for (int servo = 0; servo < servos; servo++)
+			for (int frame = 0; frame < frames; frame++)
+				motions[servo][frame] = (byte) (127 + 100 * Math.sin((frame + servo * 7) / 10.0));
+		return motions;
+	}
+
+	/**
+	 * Writes motions in the layout of the show CSV files: one line per frame, each position followed by a comma.
+	 */
+	private static File writeCsv(byte[][] motions) throws IOException {
+		File file = File.createTempFile("motions", ".csv");
+		file.deleteOnExit();
+		Writer out = new FileWriter(file);
+		try {
+			StringBuilder line = new StringBuilder();
+			for (int frame = 0; frame < motions[0].length; frame++) {
+				line.setLength(0);
+				for (int servo = 0; servo < motions.length; servo++)
+					line.append(motions[servo][frame] & 0xFF).append(',');
+				out.write(line.append('\n').toString());
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,5 @@
+/**
+ * Programs that measure how the show player performs under load, using simulated controllers so that no hardware is
+ * needed.
+ */
+package jacs.benchmarks;
@@ -2,6 +2,7 @@ package jacs.config;
 
 import jmcc.ArduinoUNO;
 import jmcc.MicroMaestro;
+import jmcc.MiniMaestro;
 import jmcc.Microcontroller;
 import jssc.SerialPort;
 import jssc.SerialPortException;
@@ -11,6 +12,9 @@ import jssc.SerialPortException;
  * chosen based on a combination of the operating system and card. The particular microcontroller card determines the
  * protocol that is used for serial communications. Right now, only Mini-SSC is supported. This uses {@link jmcc} for
  * supporting device-independent microcontroller methods and {@link jssc} for cross-platform serial communications
+ * <p>
+ * Commands are written to a {@link Transport}, normally a {@link SerialPortTransport}. A {@link SimulatedController}
+ * or a {@link PseudoTerminalTransport} can be set in its place to play shows without a controller attached.
  * 
  * 
  * @author galford
@@ -19,7 +23,15 @@ import jssc.SerialPortException;
 public class MicrocontrollerConnection {
 
 	private Microcontroller microcontroller = null;
-	private SerialPort port = null;
+	/**
+	 * Baud rate with which the player chooses, for each show, the lowest standard rate that carries its servos
+	 */
+	public static final int AUTO_BAUD_RATE = 0;
+
+	private Transport transport = null;
+	private int baudRate = SerialPort.BAUDRATE_9600;
+
+	private byte[] commandBuffer = new byte[0]; // Commands formatted by setTargets, reused by later calls
 
 	// Settings
 
@@ -36,16 +48,9 @@ public class MicrocontrollerConnection {
 
 		if (!chosenPort.equals("")) {
 
-			port = new SerialPort(chosenPort);
+			transport = new SerialPortTransport(new SerialPort(chosenPort));
 
-			if (microcontrollerName.equals(Microcontroller.POLOLU_MAESTRO)
-					|| microcontrollerName.equals(Microcontroller.POLOLU_MICRO_MAESTRO))
-				microcontroller = new MicroMaestro();
-
-			else if (microcontrollerName.equals(Microcontroller.ARDUINO)
-					|| microcontrollerName.equals(Microcontroller.ARDUINO_UNO)
-					|| microcontrollerName.equals(Microcontroller.GENERIC_MINI_SSC_DEVICE))
-				microcontroller = new ArduinoUNO();
+			setControllerConnectionFromCardName(microcontrollerName);
 		}
 
 	}
@@ -58,7 +63,7 @@ public class MicrocontrollerConnection {
 	 *            {@link getServoControllerPorts}
 	 */
 	public void chooseAndConnectToPort(String portName) {
-		this.port = new SerialPort(portName);
+		this.transport = new SerialPortTransport(new SerialPort(portName));
 	}
 
 	/**
@@ -72,6 +77,13 @@ public class MicrocontrollerConnection {
 				|| microcontrollerName.equals(Microcontroller.POLOLU_MICRO_MAESTRO))
 			microcontroller = new MicroMaestro();
 
+		else if (microcontrollerName.equals(Microcontroller.POLOLU_MINI_MAESTRO_12))
+			microcontroller = new MiniMaestro(Microcontroller.POLOLU_MINI_MAESTRO_12, 12);
+		else if (microcontrollerName.equals(Microcontroller.POLOLU_MINI_MAESTRO_18))
+			microcontroller = new MiniMaestro(Microcontroller.POLOLU_MINI_MAESTRO_18, 18);
+		else if (microcontrollerName.equals(Microcontroller.POLOLU_MINI_MAESTRO_24))
+			microcontroller = new MiniMaestro(Microcontroller.POLOLU_MINI_MAESTRO_24, 24);
+
 		else if (microcontrollerName.equals(Microcontroller.ARDUINO)
 				|| microcontrollerName.equals(Microcontroller.ARDUINO_UNO)
 				|| microcontrollerName.equals(Microcontroller.GENERIC_MINI_SSC_DEVICE))
@@ -79,24 +91,32 @@ public class MicrocontrollerConnection {
 	}
 
 	/**
-	 * Opens serial port using defaults of 9600 /8-N-1
+	 * Opens the transport. A serial port is opened at the baud rate of this connection, 9600 by default, 8-N-1.
 	 */
 	public void openPort() throws SerialPortException {
+		openPort(baudRate == AUTO_BAUD_RATE ? SerialPort.BAUDRATE_9600 : baudRate);
+	}
+
+	/**
+	 * Opens the transport at the given baud rate, 8-N-1.
+	 * 
+	 * @param baudRate
+	 *            speed of the serial line, one the controller card is set up for or can detect
+	 */
+	public void openPort(int baudRate) throws SerialPortException {
 		try {
-			port.openPort();
-			port.setParams(SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1,
-					SerialPort.PARITY_NONE);
+			transport.open(baudRate);
 		} catch (SerialPortException e) {
 			throw new SerialPortException(null, null, null);
 		}
 	}
 
 	/**
-	 * Closes serial port.
+	 * Closes the transport.
 	 */
 	public void closePort() throws SerialPortException {
 		try {
-			port.closePort();
+			transport.close();
 		} catch (SerialPortException e) {
 			throw new SerialPortException(null, null, null);
 		}
@@ -111,15 +131,61 @@ public class MicrocontrollerConnection {
 	 */
 
 	public void resetPort(String portName) {
-		this.port = new SerialPort(portName);
+		this.transport = new SerialPortTransport(new SerialPort(portName));
 	}
 
+	/**
+	 * @return the serial port commands are written to, or null if the transport is not a serial port
+	 */
 	public SerialPort getPort() {
-		return port;
+		return transport instanceof SerialPortTransport ? ((SerialPortTransport) transport).getPort() : null;
+	}
+
+	/**
+	 * @return the card this connection talks to, which decides the command format
+	 */
+	public Microcontroller getMicrocontroller() {
+		return microcontroller;
 	}
 
 	public void setPort(SerialPort port) {
-		this.port = port;
+		this.transport = new SerialPortTransport(port);
+	}
+
+	/**
+	 * @return the baud rate the port is opened at, or {@link #AUTO_BAUD_RATE}
+	 */
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+	/**
+	 * Chooses the speed of the serial line. Pololu Maestro cards detect the rate by themselves; an Arduino must run a
+	 * sketch that uses the same rate.
+	 * 
+	 * @param baudRate
+	 *            a rate such as {@link SerialPort#BAUDRATE_115200}, or {@link #AUTO_BAUD_RATE} to let the player
+	 *            choose the lowest rate that carries each show
+	 */
+	public void setBaudRate(int baudRate) {
+		this.baudRate = baudRate;
+	}
+
+	/**
+	 * @return where commands are written
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Chooses where commands are written, such as a {@link SimulatedController} in place of a serial port.
+	 * 
+	 * @param transport
+	 *            the transport, not yet open
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport;
 	}
 
 	/**
@@ -138,6 +204,52 @@ public class MicrocontrollerConnection {
 
 	}
 
+	/**
+	 * This is a device-independent method to position several servos with a single write to the serial port. Every
+	 * command is formatted for the underlying controller card into one buffer, which is kept and reused by later
+	 * calls.
+	 * <p>
+	 * Each servo is sent its own Set Target command. Servos on consecutive pins of a Maestro share one Set Multiple
+	 * Targets command only in shows played by the player, and only with the card set to {@link Microcontroller#NATIVE}.
+	 * 
+	 * @param pinsAndPositions
+	 *            interleaved pairs of pin and target position, pin first
+	 * @param offset
+	 *            index in pinsAndPositions of the first pin
+	 * @param count
+	 *            number of pin and position pairs to send
+	 * @throws SerialPortException
+	 */
+	public void setTargets(byte[] pinsAndPositions, int offset, int count) throws SerialPortException {
+		int commandLength = microcontroller.getSetTargetCommandLength();
+		if (commandBuffer.length < count * commandLength)
+			commandBuffer = new byte[count * commandLength];
+
+		for (int i = 0; i < count; i++)
+			microcontroller.encodeSetTarget(pinsAndPositions[offset + 2 * i], pinsAndPositions[offset + 2 * i + 1],
+					commandBuffer, i * commandLength);
+		sendCommands(commandBuffer, 0, count * commandLength);
+	}
+
+	/**
+	 * Sends a run of already formatted commands with a single write to the serial port. The bytes must be in the
+	 * format of the current microcontroller and protocol, e.g. as produced by
+	 * {@link Microcontroller#encodeSetTarget(byte, byte, byte[], int)}.
+	 * 
+	 * @param commands
+	 *            buffer holding the commands
+	 * @param offset
+	 *            index of the first byte to send
+	 * @param length
+	 *            number of bytes to send
+	 * @throws SerialPortException
+	 */
+	public void sendCommands(byte[] commands, int offset, int length) throws SerialPortException {
+		if (!transport.isOpen())
+			openPort();
+		transport.write(commands, offset, length);
+	}
+
 	/**
 	 * This sends a single command to serial port. This is to be used after the command has been formatted for the
 	 * currently connected microcontroller using {@link nuildSetTargetCommand}
@@ -148,13 +260,7 @@ public class MicrocontrollerConnection {
 	 * @throws SerialPortException
 	 */
 	private void sendSingleCommand(byte[] command) throws SerialPortException {
-		if (port.isOpened())
-			port.writeBytes(command);
-		else {
-			this.openPort();
-			sendSingleCommand(command);
-		}
-
+		sendCommands(command, 0, command.length);
 	}
 
 }
@@ -0,0 +1,77 @@
+package jacs.config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import jssc.SerialPortException;
+
+/**
+ * A transport that writes to a terminal device file, such as one end of a pseudo-terminal pair. It needs no native
+ * serial library, so a show can be played into another process on a plain Linux machine, for example a controller
+ * emulator listening on the other end of
+ * <code>socat -d -d pty,raw,echo=0 pty,raw,echo=0</code>.
+ * <p>
+ * The terminal is used as it is found; it should already be in raw mode so that no bytes are translated.
+ */
+public class PseudoTerminalTransport implements Transport {
+
+	private final String devicePath;
+	private FileOutputStream out;
+
+	/**
+	 * @param devicePath
+	 *            path of the terminal, such as /dev/pts/3
+	 */
+	public PseudoTerminalTransport(String devicePath) {
+		this.devicePath = devicePath;
+	}
+
+	@Override
+	public String getName() {
+		return devicePath;
+	}
+
+	@Override
+	public synchronized void open(int baudRate) throws SerialPortException {
+		if (out != null)
+			throw new SerialPortException(devicePath, "open()", SerialPortException.TYPE_PORT_ALREADY_OPENED);
+		if (!new File(devicePath).exists())
+			throw new SerialPortException(devicePath, "open()", SerialPortException.TYPE_PORT_NOT_FOUND);
+		try {
+			out = new FileOutputStream(devicePath);
+		} catch (IOException e) {
+			throw new SerialPortException(devicePath, "open()", e.getMessage());
+		}
+	}
+
+	@Override
+	public synchronized void close() throws SerialPortException {
+		if (out == null)
+			throw new SerialPortException(devicePath, "close()", SerialPortException.TYPE_PORT_NOT_OPENED);
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new SerialPortException(devicePath, "close()", e.getMessage());
+		} finally {
+			out = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return out != null;
+	}
+
+	@Override
+	public synchronized void write(byte[] bytes, int offset, int length) throws SerialPortException {
+		if (out == null)
+			throw new SerialPortException(devicePath, "write()", SerialPortException.TYPE_PORT_NOT_OPENED);
+		try {
+			out.write(bytes, offset, length);
+		} catch (IOException e) {
+			throw new SerialPortException(devicePath, "write()", e.getMessage());
+		}
+	}
+
+}
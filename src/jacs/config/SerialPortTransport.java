@@ -0,0 +1,78 @@
+package jacs.config;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+
+/**
+ * A transport over a serial port, opened with 8 data bits, 1 stop bit and no parity at the baud rate asked for. This
+ * is how controllers plugged in over USB are reached.
+ */
+public class SerialPortTransport implements Transport {
+
+	private final SerialPort port;
+
+	// One reusable buffer per write length, since the serial port only writes whole arrays
+	private byte[][] writeBuffers = new byte[0][];
+
+	/**
+	 * @param port
+	 *            the serial port, not yet open
+	 */
+	public SerialPortTransport(SerialPort port) {
+		this.port = port;
+	}
+
+	/**
+	 * @return the serial port written to
+	 */
+	public SerialPort getPort() {
+		return port;
+	}
+
+	@Override
+	public String getName() {
+		return port.getPortName();
+	}
+
+	@Override
+	public void open(int baudRate) throws SerialPortException {
+		port.openPort();
+		port.setParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+	}
+
+	@Override
+	public void close() throws SerialPortException {
+		port.closePort();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return port.isOpened();
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws SerialPortException {
+		if (offset == 0 && length == bytes.length) {
+			port.writeBytes(bytes);
+			return;
+		}
+		byte[] buffer = getWriteBuffer(length);
+		System.arraycopy(bytes, offset, buffer, 0, length);
+		port.writeBytes(buffer);
+	}
+
+	/**
+	 * @return a buffer of exactly the given length, created on first use and reused afterwards
+	 */
+	private byte[] getWriteBuffer(int length) {
+		if (length >= writeBuffers.length) {
+			byte[][] larger = new byte[Math.max(length + 1, writeBuffers.length * 2)][];
+			System.arraycopy(writeBuffers, 0, larger, 0, writeBuffers.length);
+			writeBuffers = larger;
+		}
+		if (writeBuffers[length] == null)
+			writeBuffers[length] = new byte[length];
+		return writeBuffers[length];
+	}
+
+}
@@ -0,0 +1,244 @@
+package jacs.config;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import jssc.SerialPortException;
+
+/**
+ * A servo controller simulated in memory, so shows can be played and measured without hardware. Bytes written to it
+ * are decoded as Mini-SSC or Pololu compact protocol commands, and each command is recorded with the
+ * {@link System#nanoTime()} of the write that completed it.
+ * <p>
+ * Each write blocks for as long as its bytes would take on a serial line at the given baud rate, so the player sees
+ * the same back pressure as from a real controller.
+ * <p>
+ * Targets are recorded in the units of the command: positions from 0 to 254 for Mini-SSC, quarter-microseconds for
+ * the Pololu protocol. A Set Multiple Targets command is recorded as one Set Target per channel.
+ */
+public class SimulatedController implements Transport {
+
+	/**
+	 * Command byte of a Mini-SSC Set Target command
+	 */
+	public static final int MINI_SSC_SET_TARGET = 0xFF;
+
+	/**
+	 * Command bytes of the Pololu compact protocol
+	 */
+	public static final int SET_TARGET = 0x84, SET_SPEED = 0x87, SET_ACCELERATION = 0x89,
+			SET_MULTIPLE_TARGETS = 0x9F;
+
+	private static final int BITS_PER_BYTE = 10; // Start bit, 8 data bits, stop bit
+	private static final int CHANNELS = 256;
+
+	private final String name;
+	private final int baudRate;
+	private volatile boolean open = false;
+	private boolean logging = true;
+
+	// Bytes of a command not yet complete, which may span writes
+	private final byte[] pending = new byte[3 + 2 * 255];
+	private int pendingLength = 0;
+
+	private long bytesWritten = 0;
+	private long[] writeTimes = new long[1024];
+	private int writes = 0;
+	private int decodeErrors = 0;
+
+	private long[] commandTimes = new long[1024];
+	private int[] commandTypes = new int[1024];
+	private int[] commandChannels = new int[1024];
+	private int[] commandValues = new int[1024];
+	private int commands = 0;
+	private final int[] targets = new int[CHANNELS];
+
+	/**
+	 * @param name
+	 *            name reported for the controller
+	 * @param baudRate
+	 *            line speed used to work out how long each write takes, 0 for writes that take no time
+	 */
+	public SimulatedController(String name, int baudRate) {
+		this.name = name;
+		this.baudRate = baudRate;
+		Arrays.fill(targets, -1);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Opens the controller. Writes keep the pace of the baud rate the controller was created with.
+	 */
+	@Override
+	public void open(int baudRate) throws SerialPortException {
+		open = true;
+	}
+
+	@Override
+	public void close() throws SerialPortException {
+		open = false;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws SerialPortException {
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (logging) {
+				if (writes == writeTimes.length)
+					writeTimes = Arrays.copyOf(writeTimes, writes * 2);
+				writeTimes[writes++] = now;
+			}
+			bytesWritten += length;
+			for (int i = offset; i < offset + length; i++)
+				decode(bytes[i], now);
+		}
+		if (baudRate > 0)
+			LockSupport.parkNanos((long) length * BITS_PER_BYTE * 1000000000L / baudRate);
+	}
+
+	/**
+	 * Adds one byte to the command being received and records the command once it is complete.
+	 */
+	private void decode(byte b, long time) {
+		pending[pendingLength++] = b;
+		int command = pending[0] & 0xFF;
+
+		int commandLength;
+		switch (command) {
+		case MINI_SSC_SET_TARGET:
+			commandLength = 3;
+			break;
+		case SET_TARGET:
+		case SET_SPEED:
+		case SET_ACCELERATION:
+			commandLength = 4;
+			break;
+		case SET_MULTIPLE_TARGETS:
+			commandLength = pendingLength < 2 ? Integer.MAX_VALUE : 3 + 2 * (pending[1] & 0xFF);
+			break;
+		default:
+			// Not the start of a command; skip it
+			decodeErrors++;
+			pendingLength = 0;
+			return;
+		}
+		if (pendingLength < commandLength)
+			return;
+
+		if (command == MINI_SSC_SET_TARGET)
+			record(time, command, pending[1] & 0xFF, pending[2] & 0xFF);
+		else if (command == SET_MULTIPLE_TARGETS)
+			for (int i = 0; i < (pending[1] & 0xFF); i++)
+				record(time, SET_TARGET, (pending[2] & 0xFF) + i, getPololuValue(3 + 2 * i));
+		else
+			record(time, command, pending[1] & 0xFF, getPololuValue(2));
+		pendingLength = 0;
+	}
+
+	/**
+	 * @return the 14 bit value sent as 7 low bits then 7 high bits at the given index of the pending command
+	 */
+	private int getPololuValue(int index) {
+		return (pending[index] & 0x7F) | (pending[index + 1] & 0x7F) << 7;
+	}
+
+	private void record(long time, int type, int channel, int value) {
+		if (type == SET_TARGET || type == MINI_SSC_SET_TARGET)
+			targets[channel & (CHANNELS - 1)] = value;
+		if (!logging)
+			return;
+
+		if (commands == commandTimes.length) {
+			commandTimes = Arrays.copyOf(commandTimes, commands * 2);
+			commandTypes = Arrays.copyOf(commandTypes, commands * 2);
+			commandChannels = Arrays.copyOf(commandChannels, commands * 2);
+			commandValues = Arrays.copyOf(commandValues, commands * 2);
+		}
+		commandTimes[commands] = time;
+		commandTypes[commands] = type;
+		commandChannels[commands] = channel;
+		commandValues[commands++] = value;
+	}
+
+	/**
+	 * Chooses whether each write and command is kept. Turning it off lets the controller take any number of writes,
+	 * such as from a benchmark, in constant memory; bytes written, decode errors and the last targets are still
+	 * tracked.
+	 */
+	public synchronized void setLogging(boolean logging) {
+		this.logging = logging;
+	}
+
+	/**
+	 * @return total bytes written since the controller was created
+	 */
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} at which each write started, in order
+	 */
+	public synchronized long[] getWriteTimes() {
+		return Arrays.copyOf(writeTimes, writes);
+	}
+
+	/**
+	 * @return number of commands decoded
+	 */
+	public synchronized int getCommandCount() {
+		return commands;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} of the write that completed the given command
+	 */
+	public synchronized long getCommandTime(int command) {
+		return commandTimes[command];
+	}
+
+	/**
+	 * @return the command byte of the given command, such as {@link #SET_TARGET}
+	 */
+	public synchronized int getCommandType(int command) {
+		return commandTypes[command];
+	}
+
+	/**
+	 * @return the channel the given command was addressed to
+	 */
+	public synchronized int getCommandChannel(int command) {
+		return commandChannels[command];
+	}
+
+	/**
+	 * @return the target, speed or acceleration sent by the given command
+	 */
+	public synchronized int getCommandValue(int command) {
+		return commandValues[command];
+	}
+
+	/**
+	 * @return the last target set for the given channel, -1 if none has been
+	 */
+	public synchronized int getTarget(int channel) {
+		return targets[channel];
+	}
+
+	/**
+	 * @return number of bytes that were not part of any command the controller understands
+	 */
+	public synchronized int getDecodeErrors() {
+		return decodeErrors;
+	}
+
+}
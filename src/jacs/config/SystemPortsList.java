@@ -81,8 +81,11 @@ public class SystemPortsList {
 
 		case SerialNativeInterface.OS_WINDOWS: {
 			if (microcontrollerPorts.length >= 2
-					&& (microcontrollerName.equals(Microcontroller.POLOLU_MAESTRO) || microcontrollerName
-							.equals(Microcontroller.POLOLU_MICRO_MAESTRO)))
+					&& (microcontrollerName.equals(Microcontroller.POLOLU_MAESTRO)
+							|| microcontrollerName.equals(Microcontroller.POLOLU_MICRO_MAESTRO)
+							|| microcontrollerName.equals(Microcontroller.POLOLU_MINI_MAESTRO_12)
+							|| microcontrollerName.equals(Microcontroller.POLOLU_MINI_MAESTRO_18)
+							|| microcontrollerName.equals(Microcontroller.POLOLU_MINI_MAESTRO_24)))
 
 				return microcontrollerPorts[microcontrollerPorts.length - 2];
 
@@ -0,0 +1,54 @@
+package jacs.config;
+
+import jssc.SerialPortException;
+
+/**
+ * The byte stream between a {@link MicrocontrollerConnection} and its controller. The connection formats commands for
+ * the controller; the transport only delivers the bytes, whether to a serial port, a pseudo-terminal or a controller
+ * simulated in memory.
+ */
+public interface Transport {
+
+	/**
+	 * @return name of the port or device, for messages
+	 */
+	String getName();
+
+	/**
+	 * Opens the transport for writing.
+	 * 
+	 * @param baudRate
+	 *            speed of the serial line. Transports without a line speed of their own ignore it.
+	 * @throws SerialPortException
+	 *             if the port or device cannot be opened
+	 */
+	void open(int baudRate) throws SerialPortException;
+
+	/**
+	 * Closes the transport. Bytes already written are still delivered.
+	 * 
+	 * @throws SerialPortException
+	 *             if the port or device cannot be closed
+	 */
+	void close() throws SerialPortException;
+
+	/**
+	 * @return true if the transport is open
+	 */
+	boolean isOpen();
+
+	/**
+	 * Writes bytes to the controller, blocking until the transport has accepted all of them.
+	 * 
+	 * @param bytes
+	 *            buffer holding the bytes
+	 * @param offset
+	 *            index of the first byte to write
+	 * @param length
+	 *            number of bytes to write
+	 * @throws SerialPortException
+	 *             if the bytes cannot be written
+	 */
+	void write(byte[] bytes, int offset, int length) throws SerialPortException;
+
+}
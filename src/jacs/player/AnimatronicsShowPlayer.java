@@ -1,13 +1,10 @@
 package jacs.player;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.HashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -18,6 +15,8 @@ import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import jacs.config.MicrocontrollerConnection;
+import jmcc.Maestro;
+import jmcc.Microcontroller;
 import jssc.SerialPortException;
 
 /**
@@ -25,6 +24,17 @@ import jssc.SerialPortException;
  * synchronized to Servo motor motions (including specified starting and ending
  * points), a real-time audio feed, and a real time servo feed. An unlimited
  * number of servo motors are supported.
+ * <p>
+ * Servo output is paced by a {@link FrameScheduler} against absolute deadlines, while audio is paced by the audio line
+ * itself. Neither output waits on the other, so a slow cycle on one does not stretch the show.
+ * <p>
+ * A show may be spread over several controllers on separate serial ports (see
+ * {@link #routeServo(byte, MicrocontrollerConnection, byte)}). Each controller is sent its servos by its own thread,
+ * and all of them follow the same scheduler.
+ * <p>
+ * Players that share a {@link ShowScheduler} send their output from its threads instead of threads of their own, so
+ * many characters can play at once without a thread count that grows with them. Players with threads of their own
+ * may run them as virtual threads instead (see {@link #setExecutionMode(ExecutionMode)}).
  * 
  * @author Jared Cline
  */
@@ -41,33 +51,40 @@ public class AnimatronicsShowPlayer {
 								   // of each show
 
 	// Serial Data
-	byte[] serialDataStream; // Gets created in this class - one long stream of
-							 // bytes ready to send to serial port
+	ArrayList<ServoGroup> servoGroups; // Servos of the show per controller, with
+									   // their motions as the exact bytes to send
+									   // to its serial port, frame after frame
 
-	private int showCurSerialByte = 0; // Keeps track of current byte position
-	private int showCurAudioByte = 0;
+	// Show pins driven by a controller other than microConnection
+	private HashMap<Byte, MicrocontrollerConnection> routeConnections = new HashMap<Byte, MicrocontrollerConnection>();
+	private HashMap<Byte, Byte> routePins = new HashMap<Byte, Byte>();
+
+	private long showCurFrame = 0; // Keeps track of current frame position
+	private long showCurAudioByte = 0;
 
 	/**
 	 * Flag for advanceShow method
 	 */
-	private boolean pausedShow = false;
+	private volatile boolean pausedShow = false;
 
 	// Flag for output threads
-	private boolean exitShow = true;
+	private volatile boolean exitShow = true;
 
 	// Audio, Serial, and Timer
-	private long prevCycleTime;
+	private final ShowStatistics statistics = new ShowStatistics();
+	private String bandwidthWarning = null; // Controllers of the current show that will drop frames
 
-	private ServoPlayer servo;
+	private ServoPlayer servo; // Player for microConnection
+	private ArrayList<ServoPlayer> servoPlayers = new ArrayList<ServoPlayer>();
 	// private Timer timer;
 	private AudioPlayer audio;
 
-	// Synchornized threads controlled by a CyclicBarrier
-	private CyclicBarrier barrier;
-	private final int DEFAULT_NUMBER_THREADS = 2; // 3;
-	private int numBarrierThreads = DEFAULT_NUMBER_THREADS;
+	// Output threads paced by a shared deadline scheduler
+	private FrameScheduler scheduler;
+	private int activeOutputThreads = 0;
+	private ShowScheduler showScheduler; // Threads shared with other players, null for threads of our own
+	private ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS; // Kind of threads of our own
 
-	private Thread servoThread;
 	private Thread audioThread;
 	// private Thread timerThread;
 
@@ -75,9 +92,11 @@ public class AnimatronicsShowPlayer {
 	private RecordedAudioPlayer recordedAudio;
 	private Thread recordedAudioThread;
 
-	private ArrayList<ArrayList<Byte>> recordedServoInputBuffer = new ArrayList<ArrayList<Byte>>();
+	// Live servo input, one ring per recorded pin, filled by the caller of
+	// addRecordedServoInput and drained by the servo player
+	private static final int RECORDED_INPUT_CAPACITY = 256;
+	private ByteRingBuffer[] recordedServoInput = new ByteRingBuffer[0];
 	private byte[] recordedPinNumbers;
-	private Lock recordedServoLock = new ReentrantLock();
 
 	// Variations allowed
 	private boolean hasAudioFile = true;
@@ -128,6 +147,209 @@ public class AnimatronicsShowPlayer {
 		return timingSettings;
 	}
 
+	/**
+	 * Chooses the clock that servo playback follows for shows started after this call.
+	 * 
+	 * @param mode
+	 *            {@link SynchronizationMode#SYSTEM_CLOCK} (the default) or {@link SynchronizationMode#AUDIO_CLOCK} to
+	 *            slave servo frames to the audio device
+	 */
+	public void setSynchronizationMode(SynchronizationMode mode) {
+		timingSettings.setSynchronizationMode(mode);
+	}
+
+	public SynchronizationMode getSynchronizationMode() {
+		return timingSettings.getSynchronizationMode();
+	}
+
+	/**
+	 * Chooses how servo commands are written to the serial port for shows started after this call.
+	 * 
+	 * @param batched
+	 *            true (the default) to send all commands of a frame with a single write, false to send each command
+	 *            on its own and pause for the servo lag in between, for controllers that cannot accept bursts. Shows
+	 *            on a {@link ShowScheduler} must be batched.
+	 */
+	public void setBatchedOutput(boolean batched) {
+		timingSettings.setBatchedOutput(batched);
+	}
+
+	/**
+	 * Chooses whether every servo is sent every frame for shows started after this call.
+	 * 
+	 * @param delta
+	 *            true to send only servos whose target changed since the last frame, false (the default) to send
+	 *            every servo every frame
+	 * @param keyframeInterval
+	 *            in delta mode, the number of frames after which every servo is sent again, so that a byte lost on
+	 *            the serial line cannot leave a servo stuck. 0 sends every servo only in the first frame.
+	 */
+	public void setDeltaOutput(boolean delta, int keyframeInterval) {
+		timingSettings.setDeltaOutput(delta);
+		timingSettings.setKeyframeInterval(keyframeInterval);
+	}
+
+	/**
+	 * Chooses the threads that play shows started after this call. Output on a scheduler's threads never waits: it
+	 * must be batched (see {@link #setBatchedOutput(boolean)}), and streamed frames not yet read from disk when they
+	 * are due are counted as late.
+	 * 
+	 * @param showScheduler
+	 *            scheduler whose threads play the show alongside the shows of other players, or null (the default)
+	 *            to play on threads created for each show
+	 */
+	public void setShowScheduler(ShowScheduler showScheduler) {
+		this.showScheduler = showScheduler;
+	}
+
+	public ShowScheduler getShowScheduler() {
+		return showScheduler;
+	}
+
+	/**
+	 * Chooses the kind of thread that plays shows started after this call, when no {@link ShowScheduler} is set.
+	 * 
+	 * @param mode
+	 *            {@link ExecutionMode#PLATFORM_THREADS} (the default) or {@link ExecutionMode#VIRTUAL_THREADS}
+	 * @throws Exception
+	 *             if virtual threads are asked for and this JVM does not support them
+	 */
+	public void setExecutionMode(ExecutionMode mode) throws Exception {
+		if (mode == ExecutionMode.VIRTUAL_THREADS && !ExecutionMode.isVirtualThreadsSupported())
+			throw new Exception("Virtual threads require Java 21 or later");
+		executionMode = mode;
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * Chooses what happens to servo frames that cannot be sent on time, for shows started after this call. Output
+	 * falls behind when the serial port or the servo lag between commands takes longer than a cycle.
+	 * 
+	 * @param policy
+	 *            {@link FrameDropPolicy#PLAY_ALL} (the default) to send every frame late,
+	 *            {@link FrameDropPolicy#SKIP_TO_CURRENT} to drop missed frames or {@link FrameDropPolicy#COALESCE} to
+	 *            replace them with the frame due now
+	 */
+	public void setFrameDropPolicy(FrameDropPolicy policy) {
+		timingSettings.setFrameDropPolicy(policy);
+	}
+
+	public FrameDropPolicy getFrameDropPolicy() {
+		return timingSettings.getFrameDropPolicy();
+	}
+
+	/**
+	 * Chooses the rate at which servo frames are sent for shows started after this call, and how shows authored at
+	 * a lower rate are filled in. CSV tracks are authored at {@link FormattedShowData#DEFAULT_FRAMES_PER_SECOND}; at
+	 * 100 to 200 frames per second servos no longer step visibly between authored frames. Each frame is a full set of
+	 * servo commands, so a higher rate needs a faster serial line -- see
+	 * {@link MicrocontrollerConnection#setBaudRate(int)}.
+	 * 
+	 * @param interpolation
+	 *            how authored positions are blended, or {@link Interpolation#NONE} (the default) to play authored
+	 *            frames one per output frame. With NONE, shows authored at any other rate than framesPerSecond are
+	 *            refused rather than played too fast or too slow.
+	 * @param framesPerSecond
+	 *            servo frames sent each second, 30 by default
+	 * @throws Exception
+	 *             if the rate is not positive
+	 */
+	public void setInterpolation(Interpolation interpolation, int framesPerSecond) throws Exception {
+		if (framesPerSecond <= 0)
+			throw new Exception("Frames per second must be positive");
+		timingSettings.setInterpolation(interpolation);
+		timingSettings.setServoFramesPerSecond(framesPerSecond);
+		timingSettings.setCyclesPerSecond(framesPerSecond);
+	}
+
+	public Interpolation getInterpolation() {
+		return timingSettings.getInterpolation();
+	}
+
+	/**
+	 * Chooses whether Pololu Maestro cards move servos between sparse targets by themselves, for shows started after
+	 * this call. Each track is reduced to straight lines between key positions, and at each key the card is sent the
+	 * next position with a speed limit that makes it arrive on time. Commands are sent only where a line starts, so
+	 * serial traffic drops to a fraction of sending every frame, and the card moves the servo in steps far finer than
+	 * a frame. Servos on other controllers play every frame as usual.
+	 * 
+	 * @param enabled
+	 *            true to send sparse targets, false (the default) to send every frame
+	 * @param tolerance
+	 *            most a position may move from the show's motion when it is reduced to lines. Shows held as
+	 *            {@link KeyframeTrack}s use their own keys.
+	 * @param rampMillis
+	 *            time the card takes to speed up at the start of each line and to slow down at its end, 0 to move at
+	 *            constant speed. Easing smooths corners but stops the servo briefly at every key.
+	 * @throws Exception
+	 *             if the tolerance or ramp time is negative
+	 */
+	public void setControllerSmoothing(boolean enabled, int tolerance, int rampMillis) throws Exception {
+		if (tolerance < 0 || rampMillis < 0)
+			throw new Exception("Tolerance and ramp time must not be negative");
+		timingSettings.setControllerSmoothing(enabled);
+		timingSettings.setSmoothingTolerance(tolerance);
+		timingSettings.setSmoothingRampMillis(rampMillis);
+	}
+
+	public boolean isControllerSmoothing() {
+		return timingSettings.isControllerSmoothing();
+	}
+
+	/**
+	 * @return timing of the output of the current show, or of the last show once it has ended
+	 */
+	public ShowStatistics getShowStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return why the controllers of the current or last show cannot send every frame, so frames are dropped, or null
+	 *         if every controller keeps up
+	 */
+	public String getBandwidthWarning() {
+		return bandwidthWarning;
+	}
+
+	/**
+	 * @return servo frames of the current or last show that were sent late, dropped or coalesced because output fell
+	 *         behind, counted once per controller
+	 */
+	public long getLateFrames() {
+		long lateFrames = 0;
+		for (ServoPlayer player : servoPlayers)
+			lateFrames += player.getLateFrames();
+		return lateFrames;
+	}
+
+	/**
+	 * Drives a servo of shows started after this call from another controller. Each controller is given its own
+	 * writer thread, so a show with more servos than one serial port can refresh at the frame rate can be split
+	 * across several ports. Show pins without a route play on this player's own connection.
+	 * 
+	 * @param showPin
+	 *            pin number of the servo in the show data
+	 * @param mc
+	 *            connection to the controller the servo is attached to
+	 * @param controllerPin
+	 *            pin of that controller the servo is attached to
+	 */
+	public void routeServo(byte showPin, MicrocontrollerConnection mc, byte controllerPin) {
+		routeConnections.put(showPin, mc);
+		routePins.put(showPin, controllerPin);
+	}
+
+	/**
+	 * Plays every servo of shows started after this call on this player's own connection again.
+	 */
+	public void clearServoRoutes() {
+		routeConnections.clear();
+		routePins.clear();
+	}
+
 	/**
 	 * Calls the
 	 * {@link AnimatronicsShowPlayer#playShow(FormattedShowData, long, long)
@@ -147,6 +369,13 @@ public class AnimatronicsShowPlayer {
 
 	/**
 	 * Begins playback of the show specified by the input parameter.
+	 * <p>
+	 * Servos are sent in the current protocol of their card. Maestro cards other than the Micro Maestro send servos on
+	 * consecutive pins with one Set Multiple Targets command, but only once the card's protocol is set to
+	 * {@link Microcontroller#NATIVE}; in the default Mini-SSC every servo is sent on its own.
+	 * <p>
+	 * A show is played at the player's frame rate. Unless it is resampled (see
+	 * {@link #setInterpolation(Interpolation, int)}), it must have been authored at that rate.
 	 * 
 	 * @param data
 	 *            show data -- see {@link FormattedShowData}
@@ -154,8 +383,8 @@ public class AnimatronicsShowPlayer {
 	 *            the number of milliseconds by which to offset the start of the
 	 *            show from the beginning of the data
 	 * @param endTime
-	 *            the number of milliseconds by which to offset the end of the
-	 *            show from the end of the data
+	 *            the number of milliseconds from the beginning of the data at
+	 *            which to end the show
 	 * @throws Exception
 	 *             if an error is found
 	 */
@@ -165,258 +394,538 @@ public class AnimatronicsShowPlayer {
 			throw new Exception("Show resumed");
 		} else if (!exitShow)
 			throw new Exception("Show is currently playing");
+		checkFrameRate(data.getFramesPerSecond());
+		checkSharedOutput();
 
 		// This supports allow simultaneous recording and playback on designated
 		// pins
 		this.recordedPinNumbers = data.getRecordedPinNumbers();
+		recordedServoInput = new ByteRingBuffer[recordedPinNumbers.length];
 		for (int i = 0; i < recordedPinNumbers.length; i++) {
-			recordedServoInputBuffer.add(new ArrayList<Byte>());
+			recordedServoInput[i] = new ByteRingBuffer(RECORDED_INPUT_CAPACITY);
 		}
 
 		exitShow = false;
 
-		// Interleave separate tracks to one
-		serialDataStream = createServoMotionStream(data.getPinNumbers(), data.getServoMotions());
+		try {
+			// Translate tracks to controller commands, reusing the last compilation
+			// if the show was already played on the same card. Resampled, keyframe
+			// and mapped shows are translated a frame at a time as they play.
+			servoGroups = ServoGroup.plan(data.getPinNumbers(), microConnection, routeConnections, routePins);
+			for (ServoGroup group : servoGroups) {
+				// Rate at which the show's own frames pass: as authored when resampled, else one per output frame
+				int authoredFramesPerSecond = isInterpolated(data.getFramesPerSecond()) ? data.getFramesPerSecond()
+						: timingSettings.getServoFramesPerSecond();
+				group.sparse = timingSettings.isControllerSmoothing()
+						&& group.connection.getMicrocontroller() instanceof Maestro;
+				if (group.sparse)
+					group.source = new ControllerRampShow(data, group.servos, group.pinNumbers,
+							(Maestro) group.connection.getMicrocontroller(), timingSettings.getSmoothingTolerance(),
+							timingSettings.getSmoothingRampMillis(), authoredFramesPerSecond,
+							timingSettings.getServoFramesPerSecond());
+				else if (isInterpolated(data.getFramesPerSecond()) || data.getKeyframeTracks() != null
+						|| data.hasFrameData())
+					group.source = new InterpolatedShow(data, group.servos, group.pinNumbers,
+							group.connection.getMicrocontroller(), timingSettings.getInterpolation(),
+							isInterpolated(data.getFramesPerSecond()) ? timingSettings.getServoFramesPerSecond()
+									: data.getFramesPerSecond());
+				else if (group.connection == microConnection && group.isWholeShow(data.getPinNumbers()))
+					group.source = data.getCompiledShow(microConnection.getMicrocontroller());
+				else
+					group.source = new CompiledShow(data, group.servos, group.pinNumbers,
+							group.connection.getMicrocontroller());
+			}
+
+			planBandwidth(recordedPinNumbers);
 
-		// Start threads
-		startSynchronizedShowTasks(data.getAudioFile(), data.getServoMotions().length, startTime, endTime,
-				data.getRecordedPinNumbers());
+			// Start threads
+			startSynchronizedShowTasks(data.getAudioFile(), startTime, endTime, data.getRecordedPinNumbers());
+		} catch (Exception e) {
+			abortShow();
+			throw e;
+		}
 	}
 
-	private void startSynchronizedShowTasks(String audioFile, int numServos, long startTime, long endTime,
-			byte[] recordedPinNumbers) throws Exception {
+	/**
+	 * Calls the {@link AnimatronicsShowPlayer#streamShow(String, long, long) streamShow(String, long, long)} method
+	 * with the default values <BLOCKQUOTE>startTime = 0, endTime = end of the show</BLOCKQUOTE>
+	 * 
+	 * @see AnimatronicsShowPlayer#streamShow(String, long, long) streamShow(String, long, long)
+	 * @param showFileName
+	 *            path of a .jshow file -- see {@link ShowFile}
+	 * @throws Exception
+	 *             if an error is found
+	 */
+	public void streamShow(String showFileName) throws Exception {
+		streamShow(showFileName, 0, Long.MAX_VALUE);
+	}
 
-		numBarrierThreads = DEFAULT_NUMBER_THREADS; // Reset for each show
+	/**
+	 * Begins playback of a show read from a .jshow file while it plays. Servo motions are read and translated a chunk
+	 * at a time just ahead of playback, so memory use does not grow with the length of the show and shows longer than
+	 * {@link #MAX_SHOW_LENGTH} can be played. Streamed shows have no recorded pins, and are not resampled, so the player
+	 * must be set to the frame rate stated in the file.
+	 * 
+	 * @param showFileName
+	 *            path of a .jshow file -- see {@link ShowFile}
+	 * @param startTime
+	 *            the number of milliseconds by which to offset the start of the
+	 *            show from the beginning of the data
+	 * @param endTime
+	 *            the number of milliseconds from the beginning of the data at
+	 *            which to end the show
+	 * @throws Exception
+	 *             if an error is found
+	 */
+	public void streamShow(String showFileName, long startTime, long endTime) throws Exception {
+		if (pausedShow) {
+			resumeShow();
+			throw new Exception("Show resumed");
+		} else if (!exitShow)
+			throw new Exception("Show is currently playing");
 
-		if (audioFile.equals("")) {
-			numBarrierThreads--;
-			hasAudioFile = false;
-		} else {
-			numBarrierThreads = DEFAULT_NUMBER_THREADS; // Reset for each show
-			hasAudioFile = true;
-		}
-
-		barrier = new CyclicBarrier(numBarrierThreads, new Runnable() {
-			@Override
-			public void run() {
-				// if (!((!hasAudioFile || audio.getAudioExitFlag()) &&
-				// servo.getServoExitFlag()) && !exitShow) {
-				if (!((!hasAudioFile || audio.getAudioExitFlag()) && servo.getServoExitFlag()) && !exitShow) {
-					while (pausedShow) {
-						try {
-							Thread.sleep(100);
-						} catch (InterruptedException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-					}
-					advanceShow();
-				} else {
-					try {
-						// System.out.println("Exit Show");
-						exitShow = true;
-						closeThreads();
-						recordedServoInputBuffer.clear();
-					} catch (SerialPortException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+		ShowFile.ShowHeader header = ShowFile.readHeader(showFileName);
+		if (isInterpolated(header.framesPerSecond) || timingSettings.isControllerSmoothing())
+			throw new Exception("Interpolated and controller smoothed shows must be played from memory; use playShow");
+		checkFrameRate(header.framesPerSecond);
+		checkSharedOutput();
+		int framesPerSecond = timingSettings.getServoFramesPerSecond();
+		endTime = Math.min(endTime, (header.frameCount * 1000 + framesPerSecond - 1) / framesPerSecond);
+
+		this.recordedPinNumbers = new byte[0];
+		recordedServoInput = new ByteRingBuffer[0];
+
+		// The file is read once and each controller's servos are translated from
+		// it. Filling the prefetch queues starts now, while the audio line opens.
+		servoGroups = ServoGroup.plan(header.pinNumbers, microConnection, routeConnections, routePins);
+		try {
+			StreamingShow show = new StreamingShow(showFileName,
+					Math.max(StreamingShow.DEFAULT_CHUNK_FRAMES, timingSettings.getServoFramesPerCycle()),
+					StreamingShow.DEFAULT_PREFETCH_CHUNKS);
+			for (ServoGroup group : servoGroups)
+				group.source = show.addGroup(group.servos, group.pinNumbers, group.connection.getMicrocontroller());
+			show.start(new SeekIndex(framesPerSecond).getServoFrame(startTime), showScheduler, executionMode);
+			planBandwidth(recordedPinNumbers);
+
+			exitShow = false;
+			startSynchronizedShowTasks(header.audioFile, startTime, endTime, recordedPinNumbers);
+		} catch (Exception e) {
+			abortShow();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases whatever a show that failed to start had opened, so that the next show can be played. Output that had
+	 * already started sees the show has ended and stops.
+	 */
+	private void abortShow() {
+		exitShow = true;
+		for (ServoPlayer player : servoPlayers) {
+			try {
+				if (player.mc.getTransport().isOpen())
+					player.mc.closePort();
+			} catch (SerialPortException e) {
+				e.printStackTrace();
+			}
+		}
+		if (servoGroups != null)
+			for (ServoGroup group : servoGroups)
+				if (group.source != null)
+					group.source.close();
+		if (audio != null && audio.hasAudio) {
+			audio.audioLine.close();
+			if (!audio.readByScheduler) {
+				try {
+					// The decoder stops after its current read now that the show has ended
+					if (audio.decoderThread != null)
+						audio.decoderThread.join();
+				} catch (InterruptedException e) {
 				}
+				audio.finishReading();
 			}
+		}
+	}
 
-		});
-
-		servo = new ServoPlayer(timingSettings.getServoFramesPerCycle() * numServos, serialDataStream, microConnection,
-				barrier, (int) (startTime * timingSettings.getServoFramesPerSecond() * numServos / 1000), // TODO
-				// Ask
-				// Jared
-				// why
-				// 1000
-				// -
-				// how
-				// is
-				// this
-				// used
-				endTime * timingSettings.getServoFramesPerSecond() * numServos / 1000, recordedPinNumbers,
-				timingSettings.getServoLag());
-		// timer = new Timer(timingSettings.getCyclesPerSecond(), barrier);
-		audio = new AudioPlayer(barrier, timingSettings.getAudioBytesPerCycle()); // Check
-																				  // start
-																				  // and
-																				  // stop
-																				  // bytes
-																				  // work
-		recordedAudio = new RecordedAudioPlayer();
+	/**
+	 * Checks that a show authored at the given rate plays at that rate. A show that is not resampled is sent one
+	 * authored frame per output frame, so at any other rate it would play too fast or too slow for its audio.
+	 * 
+	 * @throws Exception
+	 *             if the show is not resampled and its rate differs from the player's
+	 */
+	private void checkFrameRate(int authoredFramesPerSecond) throws Exception {
+		if (!isInterpolated(authoredFramesPerSecond)
+				&& authoredFramesPerSecond != timingSettings.getServoFramesPerSecond())
+			throw new Exception(String.format(
+					"Show is authored at %d frames per second but the player sends %d; use setInterpolation to play it "
+							+ "at its own rate or to resample it",
+					authoredFramesPerSecond, timingSettings.getServoFramesPerSecond()));
+	}
 
-		prevCycleTime = System.currentTimeMillis();
+	/**
+	 * Checks that output can share the threads of a {@link ShowScheduler}, if one is set. Unbatched output pauses for
+	 * the servo lag after every command, which would hold up every other show on the same thread.
+	 * 
+	 * @throws Exception
+	 *             if a scheduler is set and output is not batched
+	 */
+	private void checkSharedOutput() throws Exception {
+		if (showScheduler != null && !timingSettings.isBatchedOutput())
+			throw new Exception("Unbatched output cannot be played on a ShowScheduler; use batched output or play the "
+					+ "show on threads of its own");
+	}
 
-		servoThread = new Thread(servo);
-		servoThread.start();
+	/**
+	 * @return true if a show authored at the given rate is resampled to the output rate
+	 */
+	private boolean isInterpolated(int authoredFramesPerSecond) {
+		return timingSettings.getInterpolation() != Interpolation.NONE
+				&& authoredFramesPerSecond != timingSettings.getServoFramesPerSecond();
+	}
 
-		// timerThread = new Thread(timer); // TODO - Why do we still have a
-		// timer with cyclic barrier?
-		// timerThread.start();
+	/**
+	 * Checks that the serial line of every controller can carry its servos at the show's frame rate, and chooses the
+	 * line speed of connections set to {@link MicrocontrollerConnection#AUTO_BAUD_RATE}. A show that does not fit would
+	 * fall further and further behind its audio, so it is refused unless a {@link FrameDropPolicy} other than
+	 * {@link FrameDropPolicy#PLAY_ALL} lets it drop frames instead.
+	 * <p>
+	 * Every servo is counted in every frame, as in a keyframe, along with live input for every recorded pin. Sparse
+	 * targets are counted by the most lines that start in one frame after the first, unless delta output sends a
+	 * keyframe every few frames. Controllers that will drop frames
+	 * are reported by {@link #getBandwidthWarning()}.
+	 * 
+	 * @throws Exception
+	 *             if a controller cannot keep up and frames may not be dropped
+	 */
+	private void planBandwidth(byte[] recordedPinNumbers) throws Exception {
+		bandwidthWarning = null;
+		for (ServoGroup group : servoGroups) {
+			// Sparse targets send only the lines that start each frame once the first frame is out, unless the
+			// whole frame is sent again as a keyframe
+			boolean keyframes = timingSettings.isDeltaOutput() && timingSettings.getKeyframeInterval() > 0;
+			int bytesPerFrame = group.sparse && !keyframes
+					? ((ControllerRampShow) group.source).getPeakChangedLength() : group.source.getFrameLength();
+			int packetsPerFrame = group.source.getPacketOffsets().length - 1;
+			if (group.connection == microConnection)
+				bytesPerFrame += recordedPinNumbers.length
+						* microConnection.getMicrocontroller().getSetTargetCommandLength();
+
+			group.baudRate = group.connection.getBaudRate();
+			if (group.baudRate == MicrocontrollerConnection.AUTO_BAUD_RATE) {
+				group.baudRate = timingSettings.getLowestBaudRate(bytesPerFrame, packetsPerFrame);
+				if (group.baudRate < 0)
+					group.baudRate = TimingSettings.BAUD_RATES[TimingSettings.BAUD_RATES.length - 1];
+			}
 
-		if (!audioFile.equals("")) {
-			audio.play(audioFile, (int) (startTime * timingSettings.getAudioBytesPerSecond() / 1000),
-					endTime * timingSettings.getAudioBytesPerSecond() / 1000);
-			audioThread = new Thread(audio);
-			audioThread.start();
+			if (!timingSettings.canCarry(bytesPerFrame, packetsPerFrame, group.baudRate)) {
+				String message = String.format(
+						"Servos on the %s need %.1f ms per frame at %d baud, but frames are %.1f ms apart",
+						group.connection.getMicrocontroller().getMicrocontrollerName(),
+						timingSettings.getFrameSendMillis(bytesPerFrame, packetsPerFrame, group.baudRate),
+						group.baudRate, 1000.0 / timingSettings.getServoFramesPerSecond());
+				int nativeFrameLength = getNativeFrameLength(group);
+				if (nativeFrameLength < group.source.getFrameLength())
+					message += String.format(". In the card's own protocol (Microcontroller.NATIVE), which sends servos on "
+							+ "consecutive pins in one command, a frame would take %d bytes instead of %d",
+							nativeFrameLength, group.source.getFrameLength());
+				if (timingSettings.getFrameDropPolicy() == FrameDropPolicy.PLAY_ALL)
+					throw new Exception(message
+							+ ". Raise the baud rate, move servos to another controller or allow frames to be dropped.");
+				message += ". Frames will be dropped.";
+				bandwidthWarning = bandwidthWarning == null ? message : bandwidthWarning + " " + message;
+			}
 		}
-		// TODO - See if recorded audio thread is always present
-		// TODO - This does not wait on barrier. There is delay in audio as is.
-		// Can this be synchronized?
-		// recordedAudio.play();
-		// recordedAudioThread = new Thread(recordedAudio);
-		// recordedAudioThread.start();
-
 	}
 
 	/**
-	 * Create an interleaved stream of bytes using correct protocol
-	 * 
-	 * @return byte 2n = pin, byte 2n+1 = movement
+	 * @return bytes per frame the servos of a group would take if its card were switched from Mini-SSC to the Pololu
+	 *         protocol, or {@link Integer#MAX_VALUE} if that does not apply
 	 */
-	private byte[] createServoMotionStream(byte[] pinNumbers, byte[][] motions) {
+	private int getNativeFrameLength(ServoGroup group) {
+		Microcontroller microcontroller = group.connection.getMicrocontroller();
+		if (group.sparse || !(microcontroller instanceof Maestro)
+				|| !microcontroller.getDefaultProtocol().equals(Microcontroller.MINI_SSC))
+			return Integer.MAX_VALUE;
+		return FrameEncoder.getNativeFrameLength(group.pinNumbers, (Maestro) microcontroller);
+	}
 
-		byte[] returnArray = new byte[2 * motions.length * motions[0].length];
-		// Interleave bytes
-		for (int j = 0; j < motions[0].length; j++) {
-			for (int i = 0; i < motions.length; i++) {
-				returnArray[2 * (j * motions.length + i)] = pinNumbers[i];
-				returnArray[2 * (j * motions.length + i) + 1] = motions[i][j];
+	private void startSynchronizedShowTasks(String audioFile, long startTime, long endTime, byte[] recordedPinNumbers)
+			throws Exception {
+
+		hasAudioFile = !audioFile.equals("");
+
+		scheduler = new FrameScheduler(timingSettings.getCyclesPerSecond());
+		statistics.reset();
+		SeekIndex seekIndex = new SeekIndex(timingSettings.getServoFramesPerSecond());
+
+		// One player per controller, all on the same schedule. Recorded input
+		// is sent to this player's own connection.
+		servoPlayers.clear();
+		for (ServoGroup group : servoGroups) {
+			ServoPlayer player = new ServoPlayer(timingSettings.getServoFramesPerCycle(), group.source,
+					group.connection, scheduler, seekIndex.getServoFrame(startTime), seekIndex.getServoFrame(endTime),
+					servoPlayers.isEmpty() ? recordedPinNumbers : new byte[0], timingSettings.getServoLag(),
+					timingSettings.isBatchedOutput(), group.baudRate);
+			if (timingSettings.isDeltaOutput())
+				player.enableDeltaOutput(timingSettings.getKeyframeInterval());
+			else if (group.sparse)
+				player.enableDeltaOutput(0);
+			player.frameDropPolicy = timingSettings.getFrameDropPolicy();
+			player.waitForFrames = showScheduler == null;
+			servoPlayers.add(player);
+		}
+		servo = servoPlayers.get(0);
+		activeOutputThreads = servoPlayers.size() + (hasAudioFile ? 1 : 0); // Reset for each show
+		// timer = new Timer(timingSettings.getCyclesPerSecond(), barrier);
+		audio = new AudioPlayer(); // Check
+								   // start
+								   // and
+								   // stop
+								   // bytes
+								   // work
+		recordedAudio = new RecordedAudioPlayer();
+
+		// Open the audio line and start decoding before the clock starts so both
+		// outputs begin together
+		if (!audioFile.equals("")) {
+			audio.play(audioFile, seekIndex, startTime, endTime);
+			if (showScheduler == null)
+				audio.startDecoder();
+			else {
+				audio.fillPrefetch();
+				audio.readByScheduler = true;
+				showScheduler.addReader(audio);
 			}
+			if (timingSettings.getSynchronizationMode() == SynchronizationMode.AUDIO_CLOCK)
+				scheduler.useAudioClock(audio.audioLine);
 		}
 
-		// Set start and stop positions (to allow for beginning to end play or
-		// segment play)
+		// Cycle 0 is due now
+		scheduler.start();
+
+		if (showScheduler == null) {
+			for (ServoPlayer player : servoPlayers)
+				executionMode.newThread(player, "Servo output", false).start();
 
-		return returnArray;
+			if (!audioFile.equals("")) {
+				audioThread = executionMode.newThread(audio, "Audio output", false);
+				audioThread.start();
+			}
+		} else {
+			for (ServoPlayer player : servoPlayers)
+				showScheduler.schedule(player);
+
+			if (!audioFile.equals("")) {
+				audio.pumpClock.start();
+				showScheduler.schedule(audio);
+			}
+		}
 
 	}
 
-	// routine to advance show that plays when all threads reach barrier
+	// routine to advance show that plays each time the servo player completes a cycle
 	private void advanceShow() {
 
 		// TODO Remove output lines
 		// Advance pointers through servo byte array
-		showCurSerialByte = servo.getCurByte();
+		showCurFrame = servo.getCurFrame();
 		showCurAudioByte = audio.getCurByte();
-		// System.out.println(showCurSerialByte + "," + showCurAudioByte);
+		// System.out.println(showCurFrame + "," + showCurAudioByte);
 
-		// Note: servoBytesPerCycle should be a factor of serialDataStream
-		// System.out.println(showCurSerialByte + "," + servo.getBytesPerCycle()
-		// + "," + serialDataStream.length);
+		// Note: servoFramesPerCycle should be a factor of the frame count
+		// System.out.println(showCurFrame + "," + servo.getFramesPerCycle()
+		// + "," + servo.source.getFrameCount());
 
-		// Might not be a bad idea to gather some stats using system time
-		// System.out.println("Cycle Time (millis):" +
-		// (System.currentTimeMillis() - prevCycleTime));
-		prevCycleTime = System.currentTimeMillis();
 	}
 
+	/**
+	 * Plays live audio passed to {@link AnimatronicsShowPlayer#addRecordedAudioInput(byte[])}. Input is copied into a
+	 * ring buffer without locks, and a writer thread that is parked while the ring is empty moves it to a small audio
+	 * line buffer.
+	 * <p>
+	 * The line is opened when the first input arrives. Audio waiting in the ring and the line together is held under
+	 * {@link #LATENCY_MILLIS}; when more than that builds up, the oldest input is dropped so the delay does not grow.
+	 */
 	private class RecordedAudioPlayer implements Runnable {
+		private static final int LATENCY_MILLIS = 20; // Most audio waiting between input and speaker
+		private static final int LINE_MILLIS = 10; // Audio line buffer requested
+		private static final int RING_MILLIS = 250; // Input accepted ahead of the writer
+
+		private final AudioFormat format = new AudioFormat(44100, 16, 2, true, true);
+		private final int bytesPerSecond = (int) (format.getFrameRate() * format.getFrameSize());
 		private byte[] data;
-		private ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		private ByteRingBuffer ring;
 		private SourceDataLine audioLine;
-		private boolean runSwitch = true;
-		private boolean hasRecordedAudio = false;
-		private Lock streamLock = new ReentrantLock();
+		private int latencyBytes; // Most bytes allowed in the ring and the line together
+		private volatile boolean runSwitch = true;
+		private volatile boolean started = false;
+		private boolean unavailable = false;
 
 		RecordedAudioPlayer() {
 		}
 
 		/**
-		 * Play a given audio file.
+		 * Opens the audio line and starts the writer thread, once per show.
 		 * 
-		 * @param audioFilePath
-		 *            Path of the audio file.
+		 * @return false if the show has ended or no audio line is available
 		 */
-		void play() {
+		synchronized boolean start() {
+			if (started)
+				return true;
+			if (!runSwitch || unavailable)
+				return false;
 
 			try {
-
-				AudioFormat format = new AudioFormat(44100, 16, 2, true, true);
 				DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
 				audioLine = (SourceDataLine) AudioSystem.getLine(info);
-				data = new byte[audioLine.getBufferSize() / 10];
-				audioLine.open(format);
+				audioLine.open(format, toBytes(LINE_MILLIS));
 				audioLine.start();
 
-			} catch (LineUnavailableException ex) {
+				// The line may not give the buffer asked for; the ring holds what the budget leaves
+				data = new byte[toBytes(LINE_MILLIS) / 2];
+				latencyBytes = Math.max(audioLine.getBufferSize() + data.length, toBytes(LATENCY_MILLIS));
+				ring = new ByteRingBuffer(toBytes(RING_MILLIS));
+				recordedAudioThread = executionMode.newThread(this, "Recorded audio", false);
+				recordedAudioThread.start();
+				started = true;
+			} catch (Exception ex) {
 				// System.out.println("Audio line for playing back is
 				// unavailable.");
 				ex.printStackTrace();
+				unavailable = true;
 			}
+			return started;
+		}
+
+		/**
+		 * Adds whole audio frames to the ring and wakes the writer. Called only by the input thread.
+		 * 
+		 * @return false if the ring cannot take all of the input
+		 */
+		boolean write(byte[] input) {
+			if (ring.free() < input.length)
+				return false;
+			ring.write(input, 0, input.length - input.length % format.getFrameSize());
+			LockSupport.unpark(recordedAudioThread);
+			return true;
 		}
 
 		@Override
 		public void run() {
 			while (runSwitch) {
-				while (runSwitch && hasRecordedAudio) {
-					streamLock.lock();
-					try {
-						data = stream.toByteArray();
-						stream.reset();
-
-					} finally {
-						streamLock.unlock();
-					}
-					audioLine.write(data, 0, data.length);
+				if (ring.available() == 0) {
+					LockSupport.park(this);
+					continue;
 				}
 
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+				// Drop the oldest input beyond the budget, so a burst or a stall does not delay everything after it
+				int excess = getQueuedBytes() - latencyBytes;
+				if (excess > 0)
+					ring.skip(excess + (format.getFrameSize() - excess % format.getFrameSize()) % format.getFrameSize());
+
+				int count = ring.read(data, 0, data.length);
+				if (count > 0)
+					audioLine.write(data, 0, count); // Blocks only until the line has room
 			}
 		}
 
-		void setRecordedAudioInput(boolean b) {
-			hasRecordedAudio = b;
+		/**
+		 * @return bytes waiting in the ring and the audio line
+		 */
+		int getQueuedBytes() {
+			return ring.available() + audioLine.getBufferSize() - audioLine.available();
+		}
 
+		/**
+		 * @return milliseconds of audio waiting between input and the speaker, -1 if no input has arrived
+		 */
+		long getLatencyMillis() {
+			return started ? getQueuedBytes() * 1000L / bytesPerSecond : -1;
+		}
+
+		/**
+		 * Stops the writer and closes the line, dropping any input not yet played.
+		 */
+		synchronized void stop() throws InterruptedException {
+			runSwitch = false;
+			if (!started)
+				return;
+			LockSupport.unpark(recordedAudioThread);
+			recordedAudioThread.join();
+			audioLine.stop();
+			audioLine.flush();
+			audioLine.close();
+		}
+
+		private int toBytes(int millis) {
+			int bytes = bytesPerSecond * millis / 1000;
+			return bytes - bytes % format.getFrameSize();
 		}
 
 	}
 
-	private class AudioPlayer implements Runnable {
+	/**
+	 * Plays the show audio. A decoder thread reads the audio file ahead of playback into a ring buffer, so the thread
+	 * writing to the audio line never waits on the disk.
+	 * <p>
+	 * On a {@link ShowScheduler} there are no threads of its own: the scheduler's reader thread tops up the ring, and
+	 * each cycle writes only what the line can take without blocking.
+	 */
+	private class AudioPlayer implements Runnable, CycleTask, PrefetchTask {
+		private static final int PREFETCH_MILLIS = 2000; // Audio decoded ahead of the line
+		private static final long PREFETCH_WAIT_NANOS = 1000000L; // Poll interval when the ring is full or empty
+
 		private byte[] bytesBuffer;
 		private int bytesRead = -1;
 		private AudioInputStream audioStream;
 		private SourceDataLine audioLine;
-		private CyclicBarrier barrier;
 		private boolean audioExitFlag = false;
-		private boolean runSwitch = true;
-		private int curByte = 0;
+		private volatile boolean runSwitch = true;
+		private long curByte = 0;
 		private long endingByte;
 		private boolean hasAudio = false;
-
-		AudioPlayer(CyclicBarrier barrier, int bufferSize) {
-			this.barrier = barrier;
-			bytesBuffer = new byte[bufferSize];
+		private int frameSize;
+		private ByteRingBuffer prefetchBuffer;
+		private Thread decoderThread;
+		private byte[] decodeBuffer;
+		private long decodedByte;
+		private boolean decodeFinished = false;
+		private boolean readByScheduler = false; // The scheduler's reader thread reads and closes the audio stream
+		private FrameScheduler pumpClock; // Cycles of a scheduled player, independent of the servo clock
+
+		AudioPlayer() {
 		}
 
 		/**
-		 * Play a given audio file.
+		 * Play a given audio file. Byte offsets and the per-cycle buffer are sized from the byte rate of the file
+		 * itself, which also replaces the default rate held in the {@link TimingSettings}.
 		 * 
 		 * @param audioFilePath
 		 *            Path of the audio file.
+		 * @param seekIndex
+		 *            maps the start and end positions to audio bytes aligned with the servo frames
+		 * @param startMillis
+		 *            position in the file at which to start playback
+		 * @param endMillis
+		 *            position in the file at which to end playback
 		 * @throws Exception
 		 */
-		void play(String audioFilePath, int bytesToSkip, long endingByte) throws Exception {
+		void play(String audioFilePath, SeekIndex seekIndex, long startMillis, long endMillis) throws Exception {
 
 			File audioFile = new File(audioFilePath);
 			try {
-				audioStream = AudioSystem.getAudioInputStream(audioFile);
-				audioStream.skip(bytesToSkip);
-				curByte += bytesToSkip + bytesToSkip % audioStream.getFormat().getFrameSize();
-
-				this.endingByte = endingByte + endingByte % audioStream.getFormat().getFrameSize();
-
-				AudioFormat format = audioStream.getFormat();
+				seekIndex.indexAudio(audioFile);
+				AudioFormat format = seekIndex.getAudioFormat();
+				timingSettings.setAudioBytesPerSecond((int) (format.getFrameRate() * format.getFrameSize()));
+				frameSize = format.getFrameSize();
+				int bytesPerCycle = timingSettings.getAudioBytesPerCycle();
+				bytesBuffer = new byte[Math.max(frameSize, bytesPerCycle - bytesPerCycle % frameSize)];
+
+				// Both offsets are whole audio frames at the time of a servo frame
+				curByte = seekIndex.getAudioByte(startMillis);
+				endingByte = seekIndex.getAudioByte(endMillis);
+				audioStream = seekIndex.openAudio(curByte);
 
 				DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
 
@@ -429,6 +938,12 @@ public class AnimatronicsShowPlayer {
 				hasAudio = true;
 				// System.out.println("Playback started.");
 
+				prefetchBuffer = new ByteRingBuffer(
+						(int) ((long) timingSettings.getAudioBytesPerSecond() * PREFETCH_MILLIS / 1000));
+				decodeBuffer = new byte[bytesBuffer.length];
+				decodedByte = curByte;
+				pumpClock = new FrameScheduler(timingSettings.getCyclesPerSecond());
+
 			} catch (UnsupportedAudioFileException ex) {
 				throw new Exception("The specified audio file is not supported.", ex.getCause());
 			} catch (LineUnavailableException ex) {
@@ -440,32 +955,157 @@ public class AnimatronicsShowPlayer {
 			}
 		}
 
-		@Override
-		public void run() {
+		/**
+		 * Starts a thread that decodes the audio into the prefetch ring, so the ring is filled by the time the show
+		 * starts.
+		 */
+		void startDecoder() throws Exception {
+			decoderThread = executionMode.newThread(new Runnable() {
+				@Override
+				public void run() {
+					decode();
+				}
+			}, "Audio prefetch", true);
+			decoderThread.start();
+		}
+
+		/**
+		 * Reads the next chunk of the audio file into the decode buffer. Only whole audio frames are kept.
+		 * 
+		 * @return bytes read, 0 or less once the ending byte or the end of the file is reached
+		 */
+		private int decodeChunk() throws IOException {
+			if (decodedByte >= endingByte)
+				return 0;
+			int read = audioStream.read(decodeBuffer);
+			if (decodedByte + read > endingByte)
+				read = (int) (endingByte - decodedByte);
+			read -= read % frameSize;
+			if (read > 0)
+				decodedByte += read;
+			return read;
+		}
+
+		/**
+		 * Reads the audio file into the prefetch ring until the ending byte, waiting whenever the ring is full.
+		 */
+		private void decode() {
 			try {
-				while (runSwitch) {
-					while (hasAudio && runSwitch && (bytesRead = audioStream.read(bytesBuffer)) != -1
-							&& curByte < endingByte) {
-						if (curByte + bytesRead > endingByte)
-							bytesRead = (int) (endingByte - curByte);
-						curByte += bytesRead;
-						audioLine.write(bytesBuffer, 0, bytesRead);
-						barrier.await();
-					}
-					this.audioExitFlag = true;
-					if (runSwitch) {
-						barrier.await();
+				int read;
+				while (runSwitch && !exitShow && (read = decodeChunk()) > 0) {
+					for (int written = 0; written < read && runSwitch && !exitShow;) {
+						int count = prefetchBuffer.write(decodeBuffer, written, read - written);
+						if (count == 0)
+							LockSupport.parkNanos(PREFETCH_WAIT_NANOS);
+						written += count;
 					}
 				}
 			} catch (IOException ex) {
-				// System.out.println("Error playing the audio file.");
+				// System.out.println("Error reading the audio file.");
 				ex.printStackTrace();
-			} catch (InterruptedException e) {
-				// System.out.println("interrupted");
-			} catch (BrokenBarrierException e) {
-				e.printStackTrace();
+			} finally {
+				prefetchBuffer.close();
 			}
+		}
 
+		/**
+		 * Decodes as many whole chunks as fit in the prefetch ring without waiting.
+		 */
+		void fillPrefetch() throws IOException {
+			while (!decodeFinished && prefetchBuffer.free() >= decodeBuffer.length) {
+				int read = decodeChunk();
+				if (read <= 0) {
+					decodeFinished = true;
+					prefetchBuffer.close();
+				} else
+					prefetchBuffer.write(decodeBuffer, 0, read);
+			}
+		}
+
+		/**
+		 * Tops up the prefetch ring on the reader thread of a {@link ShowScheduler}.
+		 */
+		@Override
+		public boolean prefetch() throws IOException {
+			if (!runSwitch || exitShow)
+				return false;
+			fillPrefetch();
+			return !decodeFinished;
+		}
+
+		/**
+		 * Closes the audio stream once the reader thread is done with it.
+		 */
+		@Override
+		public void finishReading() {
+			try {
+				audioStream.close();
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		/**
+		 * Writes prefetched audio as fast as the line accepts it. The line blocks once its buffer is full, so the audio
+		 * hardware paces this thread rather than the servo player.
+		 */
+		@Override
+		public void run() {
+			try {
+				// While paused the line is stopped, so a write blocks until the show resumes
+				while (hasAudio && runSwitch && !exitShow && !prefetchBuffer.isDrained()) {
+					int available = prefetchBuffer.available();
+					bytesRead = Math.min(available - available % frameSize, bytesBuffer.length);
+					if (bytesRead == 0) {
+						// Decoder has fallen behind; the line plays from its own buffer meanwhile
+						LockSupport.parkNanos(PREFETCH_WAIT_NANOS);
+						continue;
+					}
+					prefetchBuffer.read(bytesBuffer, 0, bytesRead);
+					curByte += bytesRead;
+					long start = System.nanoTime();
+					audioLine.write(bytesBuffer, 0, bytesRead);
+					statistics.getAudioWrite().record(System.nanoTime() - start);
+				}
+			} finally {
+				finish();
+			}
+
+		}
+
+		@Override
+		public long getNanosUntilCycle(long cycle) {
+			return pumpClock.getNanosUntilCycle(cycle);
+		}
+
+		/**
+		 * Writes as much prefetched audio as the line takes without blocking.
+		 */
+		@Override
+		public boolean runCycle(long cycle) {
+			if (!hasAudio || !runSwitch || exitShow || prefetchBuffer.isDrained())
+				return false;
+			if (pausedShow)
+				return true;
+
+			int writable = audioLine.available();
+			while ((bytesRead = Math.min(Math.min(writable, prefetchBuffer.available()), bytesBuffer.length)
+					/ frameSize * frameSize) > 0) {
+				prefetchBuffer.read(bytesBuffer, 0, bytesRead);
+				curByte += bytesRead;
+				long start = System.nanoTime();
+				audioLine.write(bytesBuffer, 0, bytesRead);
+				statistics.getAudioWrite().record(System.nanoTime() - start);
+				writable -= bytesRead;
+			}
+			return !prefetchBuffer.isDrained();
+		}
+
+		@Override
+		public void finish() {
+			this.audioExitFlag = true;
+			scheduler.releaseAudioClock();
+			outputThreadFinished();
 		}
 
 		/**
@@ -478,179 +1118,318 @@ public class AnimatronicsShowPlayer {
 		/**
 		 * @return the curByte
 		 */
-		int getCurByte() {
+		long getCurByte() {
 			return curByte;
 		}
 
 	}
 
-	private class ServoPlayer implements Runnable {
+	private class ServoPlayer implements Runnable, CycleTask {
 
-		/**
-		 * Excludes counting signal bytes
-		 */
-		private int bytesPerCycle;
-		private byte[] motions;
+		private int framesPerCycle;
+		private FrameSource source;
+		private byte[] cycleBuffer; // Wire data of the frames sent this cycle
+		private int frameLength;
+		private int[] packetOffsets;
 		private MicrocontrollerConnection mc;
-		private CyclicBarrier barrier;
+		private FrameScheduler scheduler;
 		private boolean servoExitFlag = false;
-		private boolean runSwitch = true;
-		private int curByte = 0;
-		private int endingByte;
-		private int bytesPerPacket = 2;
-		private boolean hasRecordedServoInput;
-		private int recordedBytesRead = 0;
+		private volatile boolean runSwitch = true;
+		private long curFrame = 0;
+		private long firstFrame;
+		private long endingFrame;
+		private FrameDropPolicy frameDropPolicy = FrameDropPolicy.PLAY_ALL;
+		private long skippedCycles = 0; // Cycles of the schedule passed over by dropping frames
+		private volatile long lateFrames = 0; // Frames sent after the next cycle was due, dropped or coalesced
+		private volatile boolean hasRecordedServoInput;
 		private byte[] recordedPinNumbers;
+		private byte[] recordedTargets; // Pin and newest position of each recorded pin with new input
+		private byte[] recordedInputBuffer = new byte[RECORDED_INPUT_CAPACITY];
 		private int lagMillis;
-
-		ServoPlayer(int motionsPerCycle, byte[] serialDataStream, MicrocontrollerConnection mc, CyclicBarrier barrier,
-				int motionsToSkip, long endingMotion, byte[] recordedPinNumbers, int lagMillis)
-						throws SerialPortException {
-			this.bytesPerCycle = motionsPerCycle * bytesPerPacket;
-			this.motions = serialDataStream;
+		private boolean batchedOutput;
+		private boolean waitForFrames = true; // False on a shared thread, which must not wait for frames being read
+
+		// Delta output: the bytes of the last frame sent, and the frames sent since every servo was last refreshed
+		private boolean deltaOutput = false;
+		private int keyframeInterval;
+		private byte[] lastSentFrame;
+		private int framesSinceKeyframe;
+		private byte[] outputBuffer;
+
+		ServoPlayer(int framesPerCycle, FrameSource source, MicrocontrollerConnection mc, FrameScheduler scheduler,
+				long framesToSkip, long endingFrame, byte[] recordedPinNumbers, int lagMillis, boolean batchedOutput,
+				int baudRate) throws SerialPortException {
+			this.framesPerCycle = framesPerCycle;
+			this.source = source;
+			this.frameLength = source.getFrameLength();
+			this.packetOffsets = source.getPacketOffsets();
+			this.cycleBuffer = new byte[framesPerCycle * frameLength];
 			this.lagMillis = lagMillis;
+			this.batchedOutput = batchedOutput;
 			this.mc = mc;
-			this.barrier = barrier;
-			this.endingByte = (int) endingMotion * bytesPerPacket;
-			curByte += motionsToSkip * bytesPerPacket;
+			this.scheduler = scheduler;
+			this.endingFrame = Math.min(endingFrame, source.getFrameCount());
+			curFrame += framesToSkip;
+			firstFrame = curFrame;
 
 			hasRecordedServoInput = recordedPinNumbers.length > 0;
 			this.recordedPinNumbers = recordedPinNumbers;
+			this.recordedTargets = new byte[2 * recordedPinNumbers.length];
 
-			mc.openPort();
+			mc.openPort(baudRate);
 		}
 
 		/**
+		 * Sends one cycle of servo commands at each deadline of the scheduler. Deadlines are absolute, so a slow
+		 * cycle is followed by a shorter wait instead of delaying the rest of the show.
+		 * 
 		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
+			long cycle = 0;
 			try {
-				while (runSwitch) {
-					while (runSwitch && curByte < motions.length && curByte < endingByte) {
-						// //System.out.println("RunSwitch: " + runSwitch +
-						// "\tcurByte " + curByte
-						// + "\tmotions.length " + motions.length);
-						// If fewer than bytesPerCycle left, adjust settings to
-						// play only what is left
-						if (curByte + bytesPerCycle > serialDataStream.length)
-							setBytesPerCycle(serialDataStream.length - curByte);
-						else if (curByte + bytesPerCycle > endingByte)
-							setBytesPerCycle(endingByte - curByte);
-
-						for (int i = 0; i < bytesPerCycle; i += 2) {
-							mc.setTarget(motions[curByte + i], motions[curByte + i + 1]); // TODO
-																						  // Is
-																						  // this
-																						  // the
-																						  // correct
-																						  // method
-																						  // to
-																						  // move
-																						  // motors?
-																						  // Perhaps
-																						  // sendbytes?
-							sendRecordedData(1); // TODO - Why is
-												 // sendRecordedData in the
-												 // loop? Why is argument 1?
-							Thread.sleep(lagMillis);
-						}
-						sendRecordedData(-1);
-						curByte += bytesPerCycle;
-						barrier.await();
-					}
-					this.servoExitFlag = true;
-					// System.out.println("Servo finished");
-					if (runSwitch) {
-						barrier.await();
-					}
-
+				while (!isFinished()) {
+					long waitStart = System.nanoTime();
+					long late = scheduler.awaitCycle(cycle + skippedCycles);
+					statistics.getScheduleWait().record(System.nanoTime() - waitStart);
+					statistics.getLateness().record(late);
+					if (exitShow)
+						break;
+					sendCycle(cycle++);
 				}
 			} catch (SerialPortException e) {
 				// System.out.println("Problem with serial port");
 				e.printStackTrace();
+			} catch (IOException e) {
+				// Streamed show could not be read
+				e.printStackTrace();
 			} catch (InterruptedException e) {
 				// System.out.println("interrupted");
-			} catch (BrokenBarrierException e) {
-				// System.out.println("Broken Barrier");
+			} finally {
+				finish();
 			}
 
 		}
 
+		@Override
+		public long getNanosUntilCycle(long cycle) {
+			return scheduler.getNanosUntilCycle(cycle + skippedCycles);
+		}
+
+		@Override
+		public boolean runCycle(long cycle) throws Exception {
+			if (isFinished())
+				return false;
+			statistics.getLateness().record(-scheduler.getNanosUntilCycle(cycle + skippedCycles));
+			sendCycle(cycle);
+			return !isFinished();
+		}
+
+		@Override
+		public void finish() {
+			this.servoExitFlag = true;
+			// System.out.println("Servo finished");
+			outputThreadFinished();
+		}
+
+		private boolean isFinished() {
+			return !runSwitch || exitShow || curFrame >= endingFrame;
+		}
+
 		/**
-		 * @param numSignals
-		 *            number of signals to send, -1 if all
-		 * @throws SerialPortException
+		 * Sends the next cycle of frames. If fewer than framesPerCycle are left, sends only what is left. If the
+		 * following cycle is already due, the cycle is late and the frame drop policy decides what is sent.
+		 * 
+		 * @param cycle
+		 *            cycles sent before this one
 		 */
-		private void sendRecordedData(int numSignals) throws SerialPortException {
-			if (hasRecordedServoInput && !recordedServoInputBuffer.isEmpty()) {
-				Byte[][] temp = new Byte[recordedPinNumbers.length][0];
-				for (int i = 0; i < temp.length; i++) {
-					if (!recordedServoInputBuffer.get(i).isEmpty()) {
-						recordedServoLock.lock();
-						try {
-							temp[i] = recordedServoInputBuffer.get(i).toArray(temp[i]);
-						} finally {
-							recordedServoLock.unlock();
-						}
-					}
+		private void sendCycle(long cycle) throws SerialPortException, IOException, InterruptedException {
+			long cycleStart = System.nanoTime();
+			long frame = curFrame;
+			long nextFrame = Math.min(curFrame + framesPerCycle, endingFrame);
+
+			long behind = scheduler.getCurrentCycle() - (cycle + skippedCycles);
+			if (behind > 0) {
+				switch (frameDropPolicy) {
+				case SKIP_TO_CURRENT:
+					frame = Math.min(curFrame + behind * framesPerCycle, endingFrame);
+					nextFrame = Math.min(frame + framesPerCycle, endingFrame);
+					lateFrames += frame - curFrame;
+					skippedCycles += behind;
+					break;
+				case COALESCE:
+					// Only the frame due now is sent; the rest of the current cycle is left out with the missed ones
+					nextFrame = Math.min(curFrame + (behind + 1) * framesPerCycle, endingFrame);
+					long frameNow = firstFrame + scheduler.getElapsedNanos() * scheduler.getCyclesPerSecond()
+							* framesPerCycle / 1000000000L;
+					frame = Math.max(curFrame, Math.min(frameNow, nextFrame - 1));
+					lateFrames += nextFrame - curFrame - 1;
+					skippedCycles += behind;
+					break;
+				default:
+					lateFrames += nextFrame - curFrame;
 				}
+			}
 
-				int totalLength = 0;
-				for (int i = 0; i < temp.length; i++) {
-					totalLength += temp[i].length;
+			int frames = (int) (frameDropPolicy == FrameDropPolicy.COALESCE && behind > 0 ? 1 : nextFrame - frame);
+			boolean ready = waitForFrames || source.isReady(frame, frames);
+			if (ready) {
+				source.readFrames(frame, frames, cycleBuffer, 0);
+				// Nothing to send if every servo is routed to other controllers
+				if (frameLength > 0) {
+					if (batchedOutput)
+						sendBatched(frames);
+					else
+						sendUnbatched(frames);
 				}
+			} else if (behind <= 0) {
+				// Frames are still being read from disk. They are late: held for the next cycle, or dropped with this
+				// cycle if the policy drops frames.
+				lateFrames += nextFrame - curFrame;
+			}
+			sendRecordedData();
+			if (ready || frameDropPolicy != FrameDropPolicy.PLAY_ALL)
+				curFrame = nextFrame;
+			if (this == servo)
+				advanceShow();
+			statistics.getCycleTime().record(System.nanoTime() - cycleStart);
+		}
 
-				if (numSignals == -1) {
-					recordedBytesRead = totalLength;
-				} else
-					recordedBytesRead = Math.min(numSignals, totalLength);
-
-				int counter = 0;
-				int i = 0;
-				int j = 0;
-				for (j = 0; j < temp[i].length && counter < recordedBytesRead; j++) {
-					for (; i < temp.length && counter < recordedBytesRead; i++) { // TODO
-																				  // Fix
-																				  // this
-																				  // syntax
-						mc.setTarget(recordedPinNumbers[i], temp[i][j]);
-						counter++;
+		/**
+		 * Writes commands to the serial port, timing the write.
+		 */
+		private void write(byte[] commands, int offset, int length) throws SerialPortException {
+			long start = System.nanoTime();
+			mc.sendCommands(commands, offset, length);
+			statistics.getSerialWrite().record(System.nanoTime() - start);
+		}
+
+		/**
+		 * Sends the frames in the cycle buffer with a single write. In delta mode packets that have not changed since
+		 * they were last sent are left out.
+		 */
+		private void sendBatched(int frames) throws SerialPortException {
+			if (!deltaOutput) {
+				// One write for the whole cycle; the serial port paces itself
+				write(cycleBuffer, 0, frames * frameLength);
+				return;
+			}
+
+			int offset = 0;
+			int outputLength = 0;
+			for (int f = 0; f < frames; f++, offset += frameLength) {
+				boolean keyframe = isKeyframeDue();
+				for (int p = 0; p < packetOffsets.length - 1; p++) {
+					if (keyframe || packetChanged(offset, p)) {
+						markSent(offset, p);
+						System.arraycopy(cycleBuffer, offset + packetOffsets[p], outputBuffer, outputLength,
+								packetOffsets[p + 1] - packetOffsets[p]);
+						outputLength += packetOffsets[p + 1] - packetOffsets[p];
 					}
-					i = 0;
 				}
-				clearRecordedInput();
 			}
+			if (outputLength > 0)
+				write(outputBuffer, 0, outputLength);
 		}
 
-		private void clearRecordedInput() {
-			int counter = 0, i;
-			recordedServoLock.lock();
-			try {
-				for (i = 0; counter < recordedBytesRead; i++, i = i % recordedServoInputBuffer.size()) {
-					if (recordedServoInputBuffer.get(i).size() > 0) {
-						recordedServoInputBuffer.get(i).remove(0);
-						counter++;
-					}
+		/**
+		 * Sends the frames in the cycle buffer one packet per write, pausing for the servo lag after each packet.
+		 */
+		private void sendUnbatched(int frames) throws SerialPortException, InterruptedException {
+			int offset = 0;
+			for (int f = 0; f < frames; f++, offset += frameLength) {
+				boolean keyframe = !deltaOutput || isKeyframeDue();
+				for (int p = 0; p < packetOffsets.length - 1; p++) {
+					if (!keyframe && !packetChanged(offset, p))
+						continue;
+					markSent(offset, p);
+					write(cycleBuffer, offset + packetOffsets[p], packetOffsets[p + 1] - packetOffsets[p]);
+					Thread.sleep(lagMillis);
 				}
-			} finally {
-				recordedServoLock.unlock();
 			}
 		}
 
 		/**
-		 * @return the bytesPerCycle
+		 * Sends only packets whose bytes differ from the last ones sent for the same servos, plus every packet once
+		 * each keyframe interval.
+		 */
+		void enableDeltaOutput(int keyframeInterval) {
+			this.deltaOutput = true;
+			this.keyframeInterval = keyframeInterval;
+			lastSentFrame = new byte[frameLength];
+			outputBuffer = new byte[framesPerCycle * frameLength];
+			framesSinceKeyframe = -1; // First frame is always sent in full
+		}
+
+		/**
+		 * Counts one frame towards the next keyframe.
+		 * 
+		 * @return true if every packet of this frame must be sent
+		 */
+		private boolean isKeyframeDue() {
+			if (framesSinceKeyframe < 0 || (keyframeInterval > 0 && framesSinceKeyframe >= keyframeInterval)) {
+				framesSinceKeyframe = 1;
+				return true;
+			}
+			framesSinceKeyframe++;
+			return false;
+		}
+
+		/**
+		 * @return true if packet p of the frame starting at frameOffset differs from what was last sent
 		 */
-		int getBytesPerCycle() {
-			return bytesPerCycle;
+		private boolean packetChanged(int frameOffset, int p) {
+			for (int i = packetOffsets[p]; i < packetOffsets[p + 1]; i++)
+				if (cycleBuffer[frameOffset + i] != lastSentFrame[i])
+					return true;
+			return false;
 		}
 
 		/**
-		 * @param bytesPerCycle
-		 *            the bytesPerCycle to set
+		 * Records packet p of the frame starting at frameOffset as the last one sent for its servos.
 		 */
-		void setBytesPerCycle(int bytesPerCycle) {
-			this.bytesPerCycle = bytesPerCycle;
+		private void markSent(int frameOffset, int p) {
+			if (deltaOutput)
+				System.arraycopy(cycleBuffer, frameOffset + packetOffsets[p], lastSentFrame, packetOffsets[p],
+						packetOffsets[p + 1] - packetOffsets[p]);
+		}
+
+		/**
+		 * Sends the newest live position of each recorded pin that has had input since the last cycle, with a single
+		 * write. Older positions queued behind it are skipped, so a backlog never delays the servo.
+		 * 
+		 * @throws SerialPortException
+		 */
+		private void sendRecordedData() throws SerialPortException {
+			if (!hasRecordedServoInput)
+				return;
+
+			int count = 0;
+			for (int i = 0; i < recordedPinNumbers.length; i++) {
+				ByteRingBuffer input = recordedServoInput[i];
+				int read = input.read(recordedInputBuffer, 0, recordedInputBuffer.length);
+				if (read == 0)
+					continue;
+				byte newest = recordedInputBuffer[read - 1];
+				while ((read = input.read(recordedInputBuffer, 0, recordedInputBuffer.length)) > 0)
+					newest = recordedInputBuffer[read - 1];
+				recordedTargets[2 * count] = recordedPinNumbers[i];
+				recordedTargets[2 * count + 1] = newest;
+				count++;
+			}
+			if (count > 0) {
+				long start = System.nanoTime();
+				mc.setTargets(recordedTargets, 0, count);
+				statistics.getSerialWrite().record(System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * @return the framesPerCycle
+		 */
+		int getFramesPerCycle() {
+			return framesPerCycle;
 		}
 
 		/**
@@ -661,10 +1440,17 @@ public class AnimatronicsShowPlayer {
 		}
 
 		/**
-		 * @return the curByte
+		 * @return the index of the next frame to send
 		 */
-		int getCurByte() {
-			return curByte;
+		long getCurFrame() {
+			return curFrame;
+		}
+
+		/**
+		 * @return frames of this show sent late, dropped or coalesced because the player fell behind
+		 */
+		long getLateFrames() {
+			return lateFrames;
 		}
 
 		void setRecordedServoInput(boolean input) {
@@ -674,7 +1460,7 @@ public class AnimatronicsShowPlayer {
 
 	}
 
-	// Not needed with CyclicBarrier
+	// Not needed with FrameScheduler
 	// private class Timer implements Runnable {
 	//
 	// private int millisecondsWait = 0;
@@ -708,7 +1494,7 @@ public class AnimatronicsShowPlayer {
 	 * Pauses playback of the show, preserving all current motions and audio
 	 */
 	public void pauseShow() {
-		pausedShow = true;
+		setOutputPaused(true);
 	}
 
 	/**
@@ -718,30 +1504,112 @@ public class AnimatronicsShowPlayer {
 		// Verify connection still valid or be sure to handle exceptions in
 		// threads and exit cleanly
 		//microConnection.verifyPort();
-		pausedShow = false;
+		setOutputPaused(false);
 	}
 
 	/**
 	 * Stops playback of the show, ending all motions and audio
 	 */
 	public void stopShow() {
-		pausedShow = false;
 		exitShow = true;
+		setOutputPaused(false);
+	}
 
+	/**
+	 * Freezes or restarts servo and audio output together. The audio line is stopped rather than left to play out
+	 * its buffer, so both resume from the frame at which they were paused. Waiting outputs are woken at once on
+	 * resume.
+	 */
+	private synchronized void setOutputPaused(boolean paused) {
+		pausedShow = paused;
+		if (scheduler == null)
+			return;
+
+		if (paused) {
+			scheduler.pause();
+			if (audio.hasAudio && audio.audioLine.isOpen()) {
+				audio.audioLine.stop();
+				audio.pumpClock.pause();
+			}
+		} else {
+			if (audio.hasAudio && audio.audioLine.isOpen()) {
+				audio.audioLine.start();
+				audio.pumpClock.resume();
+			}
+			scheduler.resume();
+
+			if (showScheduler != null) {
+				for (ServoPlayer player : servoPlayers)
+					showScheduler.reschedule(player);
+				showScheduler.reschedule(audio);
+			}
+		}
+	}
+
+	/**
+	 * Called by each output as it finishes. The last to finish closes the show, and the show ends once it is closed.
+	 * On a {@link ShowScheduler} the show is closed on a thread of its own, since draining the audio line, waiting
+	 * for the decoder and closing ports would hold up a pool thread that other shows need for their frames.
+	 */
+	private void outputThreadFinished() {
+		synchronized (this) {
+			if (--activeOutputThreads > 0)
+				return;
+		}
+
+		if (showScheduler == null) {
+			closeShow(); // Already on a thread of this show
+			return;
+		}
+		try {
+			executionMode.newThread(new Runnable() {
+				@Override
+				public void run() {
+					closeShow();
+				}
+			}, "Show cleanup", false).start();
+		} catch (Exception e) {
+			e.printStackTrace();
+			closeShow();
+		}
+	}
+
+	/**
+	 * Closes the ports, sources and audio of the show, then lets the next show be played.
+	 */
+	private void closeShow() {
+		try {
+			closeThreads();
+		} catch (SerialPortException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		// System.out.println("Exit Show");
+		exitShow = true;
 	}
 
 	private void closeThreads() throws Exception {
 		// timer.runSwitch = false;
 
-		servo.runSwitch = false;
-		servo.mc.closePort();
+		for (ServoPlayer player : servoPlayers) {
+			player.runSwitch = false;
+			player.mc.closePort();
+			player.source.close();
+		}
 
 		try {
 			audio.runSwitch = false;
 			if (audio.hasAudio) {
+				// Let the decoder finish its current read before the stream is closed
+				if (audio.decoderThread != null)
+					audio.decoderThread.join();
 				audio.audioLine.drain();
 				audio.audioLine.close();
-				audio.audioStream.close();
+				if (!audio.readByScheduler)
+					audio.audioStream.close();
 			}
 
 			// System.out.println("Playback completed.");
@@ -749,9 +1617,7 @@ public class AnimatronicsShowPlayer {
 			throw new Exception("Error playing the audio file.", ex.getCause());
 		}
 
-		// recordedAudio.runSwitch = false;
-		// recordedAudio.audioLine.drain();
-		// recordedAudio.audioLine.close();
+		recordedAudio.stop();
 	}
 
 	/**
@@ -761,53 +1627,71 @@ public class AnimatronicsShowPlayer {
 	 * <BLOCKQUOTE>Use the format:
 	 * <code>AudioFormat format = new AudioFormat(44100, 16, 2, true, true);</code>
 	 * </BLOCKQUOTE>
+	 * <p>
+	 * Input passes through a lock-free queue to a thread of its own that
+	 * writes it to the audio line. The line is opened by the first input of a
+	 * show, and no more than 20 ms of input is kept waiting; older input is
+	 * dropped. Input must come from one thread at a time, in whole frames of
+	 * 4 bytes.
 	 * 
 	 * @param input
 	 *            the bytes to be added to the recorded audio input stream
+	 * @return false if no show is playing, no audio line is available or the
+	 *         queue is full, in which case the input is dropped
 	 * @throws IOException
 	 *             if an I/O error occurs writing to the byte stream
 	 */
 	public boolean addRecordedAudioInput(byte[] input) throws IOException {
-		if (exitShow || recordedAudio == null)
+		RecordedAudioPlayer player = recordedAudio;
+		if (exitShow || player == null || !player.start())
 			return false;
 
-		recordedAudio.streamLock.lock();
-		try {
-			recordedAudio.setRecordedAudioInput(true);
-			recordedAudio.stream.write(input);
-		} finally {
-			recordedAudio.streamLock.unlock();
-		}
+		return player.write(input);
+	}
 
-		return true;
+	/**
+	 * @return milliseconds of live audio waiting between
+	 *         {@link #addRecordedAudioInput(byte[])} and the speaker, or -1 if
+	 *         no live audio is playing
+	 */
+	public long getRecordedAudioLatency() {
+		RecordedAudioPlayer player = recordedAudio;
+		return exitShow || player == null ? -1 : player.getLatencyMillis();
 	}
 
 	/**
 	 * Adds the given servo input for the given pin to the servo output stream
 	 * for immediate playback. Show input must come in at the same rate as the
 	 * servo frames per second in the {@link PlayerInputs}
+	 * <p>
+	 * Input for each pin passes through a lock-free queue to the servo output
+	 * thread, which sends the newest position of every pin once per cycle.
+	 * Input for one pin must come from one thread at a time. Only pins the
+	 * show lists as recorded take input; {@link FormattedShowData} does not
+	 * yet keep recorded pins, so for now all input is refused.
 	 * 
 	 * @param input
 	 *            the bytes to be added to the servo output stream
+	 * @return false if no show is playing, the pin is not recorded in the
+	 *         show or the pin's queue is full, in which case the input is
+	 *         dropped
 	 */
 	public boolean addRecordedServoInput(byte pinNumber, byte[] input) {
 		if (exitShow || servo == null)
 			return false;
-		servo.setRecordedServoInput(true);
-		recordedServoLock.lock();
-		try {
-			for (int i = 0; i < recordedPinNumbers.length; i++) {
-				if (recordedPinNumbers[i] == pinNumber) {
-					for (byte b : input) {
-						recordedServoInputBuffer.get(i).add(b);
-					}
-				}
+		boolean accepted = false;
+		for (int i = 0; i < recordedPinNumbers.length; i++) {
+			if (recordedPinNumbers[i] == pinNumber) {
+				if (recordedServoInput[i].free() < input.length)
+					return false;
+				recordedServoInput[i].write(input, 0, input.length);
+				accepted = true;
 			}
-		} finally {
-			recordedServoLock.unlock();
 		}
+		if (accepted)
+			servo.setRecordedServoInput(true);
 
-		return true;
+		return accepted;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package jacs.player;
+
+/**
+ * A fixed size ring of bytes passed from one producer thread to one consumer thread without locks. Each side only
+ * writes its own position, and the volatile positions publish the bytes between them.
+ * <p>
+ * Reads and writes never block; they move as many bytes as are available or fit and return the count. The producer
+ * calls {@link #close()} once it has written its last byte.
+ */
+class ByteRingBuffer {
+
+	private final byte[] buffer;
+	private final int mask;
+
+	// Total bytes ever written and read. Only the producer writes writePosition, only the consumer readPosition.
+	private volatile long writePosition = 0;
+	private volatile long readPosition = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param minimumCapacity
+	 *            fewest bytes the ring must hold. The capacity is rounded up to a power of two.
+	 */
+	ByteRingBuffer(int minimumCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(1, minimumCapacity));
+		if (capacity < minimumCapacity)
+			capacity <<= 1;
+		buffer = new byte[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Copies up to length bytes into the ring. Called only by the producer.
+	 *
+	 * @return number of bytes copied, 0 if the ring is full
+	 */
+	int write(byte[] src, int offset, int length) {
+		long write = writePosition;
+		int count = Math.min(length, buffer.length - (int) (write - readPosition));
+		int start = (int) write & mask;
+		int first = Math.min(count, buffer.length - start);
+		System.arraycopy(src, offset, buffer, start, first);
+		System.arraycopy(src, offset + first, buffer, 0, count - first);
+		writePosition = write + count;
+		return count;
+	}
+
+	/**
+	 * Copies up to length bytes out of the ring. Called only by the consumer.
+	 *
+	 * @return number of bytes copied, 0 if the ring is empty
+	 */
+	int read(byte[] dest, int offset, int length) {
+		long read = readPosition;
+		int count = Math.min(length, (int) (writePosition - read));
+		int start = (int) read & mask;
+		int first = Math.min(count, buffer.length - start);
+		System.arraycopy(buffer, start, dest, offset, first);
+		System.arraycopy(buffer, 0, dest, offset + first, count - first);
+		readPosition = read + count;
+		return count;
+	}
+
+	/**
+	 * Discards up to length of the oldest bytes in the ring. Called only by the consumer.
+	 *
+	 * @return number of bytes discarded
+	 */
+	int skip(int length) {
+		long read = readPosition;
+		int count = Math.min(length, (int) (writePosition - read));
+		readPosition = read + count;
+		return count;
+	}
+
+	/**
+	 * @return bytes waiting to be read
+	 */
+	int available() {
+		return (int) (writePosition - readPosition);
+	}
+
+	/**
+	 * @return bytes that can be written before the ring is full
+	 */
+	int free() {
+		return buffer.length - available();
+	}
+
+	int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Marks the end of the stream. Bytes already written can still be read.
+	 */
+	void close() {
+		closed = true;
+	}
+
+	/**
+	 * @return true if the producer has closed the ring and every byte has been read
+	 */
+	boolean isDrained() {
+		return closed && available() == 0;
+	}
+
+}
@@ -0,0 +1,119 @@
+package jacs.player;
+
+import jmcc.Microcontroller;
+
+/**
+ * Servo motions of a show translated once, ahead of playback, into the exact bytes the servo controller expects.
+ * <p>
+ * Frame f occupies bytes <code>[f * frameLength, (f + 1) * frameLength)</code> of the wire data, laid out by a
+ * {@link FrameEncoder}. Playing any run of frames is therefore a single slice of the array, with no per-command work
+ * while the show plays.
+ */
+class CompiledShow implements FrameSource {
+
+	private final byte[] wireData;
+	private final int frameCount;
+	private final int frameLength;
+	private final int[] packetOffsets;
+
+	private final String microcontrollerName;
+	private final String protocol;
+
+	/**
+	 * Compiles the motions of a show using the current protocol of the given microcontroller.
+	 *
+	 * @param data
+	 *            the show
+	 * @param microcontroller
+	 *            the card the show will be played on
+	 * @throws Exception
+	 *             if the compiled show would not fit in one array
+	 */
+	CompiledShow(FormattedShowData data, Microcontroller microcontroller) throws Exception {
+		this(data, ServoGroup.allServos(data.getServoCount()), data.getPinNumbers(), microcontroller);
+	}
+
+	/**
+	 * Compiles the motions of some of the servos of a show.
+	 *
+	 * @param data
+	 *            the show
+	 * @param servos
+	 *            index in the show of each servo to compile
+	 * @param pinNumbers
+	 *            controller pin of each servo to compile
+	 * @param microcontroller
+	 *            the card the servos are attached to
+	 * @throws Exception
+	 *             if the compiled show would not fit in one array
+	 */
+	CompiledShow(FormattedShowData data, int[] servos, byte[] pinNumbers, Microcontroller microcontroller)
+			throws Exception {
+		microcontrollerName = microcontroller.getMicrocontrollerName();
+		protocol = microcontroller.getDefaultProtocol();
+		frameCount = data.getFrameCount();
+
+		FrameEncoder encoder = new FrameEncoder(servos, pinNumbers, microcontroller);
+		frameLength = encoder.getFrameLength();
+		packetOffsets = encoder.getPacketOffsets();
+
+		if ((long) frameCount * frameLength > Integer.MAX_VALUE)
+			throw new Exception("Show is too long to compile for the " + microcontrollerName
+					+ "; save it as a .jshow file and play it with streamShow");
+		wireData = new byte[frameCount * frameLength];
+		byte[] positions = new byte[data.getServoCount()];
+		for (int frame = 0; frame < frameCount; frame++) {
+			for (int servo = 0; servo < positions.length; servo++)
+				positions[servo] = data.getPosition(servo, frame);
+			encoder.encodeFrame(positions, 0, wireData, frame * frameLength);
+		}
+	}
+
+	/**
+	 * @return true if this show was compiled for the same card and protocol as the given microcontroller
+	 */
+	boolean isCompiledFor(Microcontroller microcontroller) {
+		return microcontrollerName.equals(microcontroller.getMicrocontrollerName())
+				&& protocol.equals(microcontroller.getDefaultProtocol());
+	}
+
+	/**
+	 * @return the compiled commands for every frame, frame after frame
+	 */
+	byte[] getWireData() {
+		return wireData;
+	}
+
+	@Override
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	@Override
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	@Override
+	public int[] getPacketOffsets() {
+		return packetOffsets;
+	}
+
+	@Override
+	public boolean isReady(long firstFrame, int frames) {
+		return true;
+	}
+
+	@Override
+	public void readFrames(long firstFrame, int frames, byte[] dest, int destOffset) {
+		System.arraycopy(wireData, (int) firstFrame * frameLength, dest, destOffset, frames * frameLength);
+	}
+
+	/**
+	 * Nothing to release; the compiled show stays cached with its show data.
+	 */
+	@Override
+	public void close() {
+	}
+
+}
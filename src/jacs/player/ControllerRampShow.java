@@ -0,0 +1,182 @@
+package jacs.player;
+
+import jmcc.Maestro;
+
+/**
+ * Servo motions of a show sent as sparse targets that a Pololu Maestro moves between by itself.
+ * <p>
+ * Each track is held as a {@link KeyframeTrack}: straight lines between key positions. At each key the servo is sent
+ * the position of the next key, after a Set Speed command that makes the card arrive there just as the next key is
+ * due. With a ramp time the card is also sent a Set Acceleration limit, and eases the servo in and out of every line
+ * while still arriving on time.
+ * <p>
+ * Every frame holds three packets per servo: Set Acceleration, Set Speed and Set Target for the line the servo is on.
+ * Targets are always sent in the card's own protocol, in quarter-microseconds, the same units speeds are worked out in,
+ * whatever protocol the card is set to.
+ * They only change at keys, so played with delta output the card is sent a servo's commands only when it starts a new
+ * line, and only those that differ from the last line; it interpolates every frame in between in hardware.
+ */
+class ControllerRampShow implements FrameSource {
+
+	private final Maestro maestro;
+	private final byte[] pinNumbers;
+	private final KeyframeTrack[] tracks; // Track of each servo of the group
+	private final int rampMillis;
+	private final int authoredFramesPerSecond;
+	private final int outputFramesPerSecond;
+	private final long frameCount;
+
+	private final int limitLength; // Bytes of a Set Speed or Set Acceleration command
+	private final int targetLength; // Bytes of a Set Target command in the card's own protocol
+	private final int frameLength;
+	private final int[] packetOffsets;
+	private final int[] keys; // Key at or before the last frame read, for each servo of the group
+
+	/**
+	 * @param data
+	 *            the show
+	 * @param servos
+	 *            index in the show of each servo to play
+	 * @param pinNumbers
+	 *            controller pin of each servo to play
+	 * @param maestro
+	 *            the card the servos are attached to
+	 * @param tolerance
+	 *            most a position may move from the show's motion when a dense track is converted to keys
+	 * @param rampMillis
+	 *            time the card takes to reach full speed at the start of each line and to stop at its end, 0 to move
+	 *            at constant speed
+	 * @param authoredFramesPerSecond
+	 *            rate at which the show's frames are played
+	 * @param outputFramesPerSecond
+	 *            frames sent each second
+	 * @throws Exception
+	 *             if the show has no frames
+	 */
+	ControllerRampShow(FormattedShowData data, int[] servos, byte[] pinNumbers, Maestro maestro, int tolerance,
+			int rampMillis, int authoredFramesPerSecond, int outputFramesPerSecond) throws Exception {
+		this.maestro = maestro;
+		this.pinNumbers = pinNumbers;
+		this.rampMillis = rampMillis;
+		this.authoredFramesPerSecond = authoredFramesPerSecond;
+		this.outputFramesPerSecond = outputFramesPerSecond;
+		frameCount = (long) data.getFrameCount() * outputFramesPerSecond / authoredFramesPerSecond;
+
+		tracks = new KeyframeTrack[servos.length];
+		byte[] motion = new byte[data.getFrameCount()];
+		for (int i = 0; i < servos.length; i++) {
+			if (data.getKeyframeTracks() != null) {
+				tracks[i] = data.getKeyframeTracks()[servos[i]];
+				continue;
+			}
+			for (int frame = 0; frame < motion.length; frame++)
+				motion[frame] = data.getPosition(servos[i], frame);
+			tracks[i] = KeyframeTrack.fromMotion(motion, tolerance);
+		}
+
+		limitLength = maestro.getSetSpeedCommandLength();
+		targetLength = maestro.getSetTargetNativeCommandLength();
+		frameLength = servos.length * (2 * limitLength + targetLength);
+		packetOffsets = new int[3 * servos.length + 1];
+		for (int i = 0; i < servos.length; i++) {
+			packetOffsets[3 * i + 1] = packetOffsets[3 * i] + limitLength;
+			packetOffsets[3 * i + 2] = packetOffsets[3 * i + 1] + limitLength;
+			packetOffsets[3 * i + 3] = packetOffsets[3 * i + 2] + targetLength;
+		}
+		keys = new int[servos.length];
+	}
+
+	@Override
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	@Override
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	@Override
+	public int[] getPacketOffsets() {
+		return packetOffsets;
+	}
+
+	/**
+	 * @return most bytes that can change from one frame to the next after the first, which is what delta output
+	 *         sends while the show plays
+	 */
+	int getPeakChangedLength() {
+		int peak = 0;
+		int[] next = new int[tracks.length]; // Next key of each track to start a line
+		for (int i = 0; i < tracks.length; i++)
+			next[i] = 1;
+		while (true) {
+			// Find the earliest key still to come and count the tracks that start a line there
+			int frame = Integer.MAX_VALUE;
+			for (int i = 0; i < tracks.length; i++)
+				if (next[i] < tracks[i].getKeyCount() - 1)
+					frame = Math.min(frame, tracks[i].getKeyFrame(next[i]));
+			if (frame == Integer.MAX_VALUE)
+				return peak;
+			int changed = 0;
+			for (int i = 0; i < tracks.length; i++) {
+				if (next[i] < tracks[i].getKeyCount() - 1 && tracks[i].getKeyFrame(next[i]) == frame) {
+					changed++;
+					next[i]++;
+				}
+			}
+			// Acceleration stays 0 for moves at constant speed, so only speed and target change
+			int lineLength = limitLength + targetLength + (rampMillis > 0 ? limitLength : 0);
+			peak = Math.max(peak, changed * lineLength);
+		}
+	}
+
+	@Override
+	public boolean isReady(long firstFrame, int frames) {
+		return true;
+	}
+
+	@Override
+	public void readFrames(long firstFrame, int frames, byte[] dest, int destOffset) {
+		for (int k = 0; k < frames; k++) {
+			int frame = (int) ((firstFrame + k) * authoredFramesPerSecond / outputFramesPerSecond);
+			for (int i = 0; i < tracks.length; i++) {
+				keys[i] = tracks[i].findKey(frame, keys[i]);
+				encodeLine(i, keys[i], dest, destOffset + k * frameLength + packetOffsets[3 * i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the commands that move servo i along the line starting at the given key. The last key of a track holds
+	 * the commands of the line that ends there, so nothing new is sent once the servo has arrived.
+	 */
+	private void encodeLine(int i, int key, byte[] dest, int offset) {
+		KeyframeTrack track = tracks[i];
+		int start = Math.max(0, Math.min(key, track.getKeyCount() - 2));
+		int end = Math.min(start + 1, track.getKeyCount() - 1);
+
+		int speed = 0;
+		int acceleration = 0;
+		if (end > start) {
+			int millis = (track.getKeyFrame(end) - track.getKeyFrame(start)) * 1000 / authoredFramesPerSecond;
+			int ramp = Math.min(rampMillis, millis / 2);
+			speed = Maestro.getSpeedForMove(track.getKeyPosition(start) & 0xFF, track.getKeyPosition(end) & 0xFF,
+					millis - ramp);
+			acceleration = Maestro.getAccelerationForRamp(speed, ramp);
+		}
+
+		byte pin = pinNumbers[i];
+		offset += maestro.encodeSetAcceleration(pin, (short) acceleration, dest, offset);
+		offset += maestro.encodeSetSpeed(pin, (short) speed, dest, offset);
+		maestro.encodeSetTargetNative(pin, (short) (track.getKeyPosition(end) & 0xFF), dest, offset);
+	}
+
+	/**
+	 * Nothing to release; keys are held in memory.
+	 */
+	@Override
+	public void close() {
+	}
+
+}
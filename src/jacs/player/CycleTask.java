@@ -0,0 +1,33 @@
+package jacs.player;
+
+/**
+ * Output of a show that does its work one cycle at a time, so that a {@link ShowScheduler} can run it on a shared
+ * thread instead of a thread of its own.
+ */
+interface CycleTask {
+
+	/**
+	 * @param cycle
+	 *            a cycle of the task, counted from 0
+	 * @return nanoseconds until the cycle is due, 0 or less if it is due now
+	 */
+	long getNanosUntilCycle(long cycle);
+
+	/**
+	 * Does the work of one cycle without waiting for the next.
+	 *
+	 * @param cycle
+	 *            the cycle that is due
+	 * @return false once the task has nothing more to do
+	 * @throws Exception
+	 *             if the output fails. The task is then finished.
+	 */
+	boolean runCycle(long cycle) throws Exception;
+
+	/**
+	 * Called once after the last cycle of the task, or after a cycle fails. It may run on a pool thread, so it must
+	 * not block; slow cleanup belongs on another thread.
+	 */
+	void finish();
+
+}
@@ -0,0 +1,66 @@
+package jacs.player;
+
+/**
+ * Selects the kind of thread a player sends its servo frames and audio from, when it is not sharing the threads of a
+ * {@link ShowScheduler}.
+ */
+public enum ExecutionMode {
+
+	/**
+	 * Each output runs on an ordinary thread of its own. Every player costs a few operating system threads.
+	 */
+	PLATFORM_THREADS,
+
+	/**
+	 * Each output runs on a virtual thread, which releases its carrier thread while it waits for a deadline or for
+	 * the serial port or audio line. Hundreds of players cost only a few operating system threads. Requires Java 21 or
+	 * later.
+	 */
+	VIRTUAL_THREADS;
+
+	/**
+	 * Creates a thread of this kind, not yet started.
+	 * 
+	 * @param task
+	 *            what the thread runs
+	 * @param name
+	 *            name of the thread
+	 * @param daemon
+	 *            true if the thread should not keep the JVM running. Virtual threads are always daemon threads.
+	 * @return the new thread
+	 * @throws Exception
+	 *             if virtual threads are not available in this JVM
+	 */
+	Thread newThread(Runnable task, String name, boolean daemon) throws Exception {
+		if (this == PLATFORM_THREADS) {
+			Thread thread = new Thread(task, name);
+			thread.setDaemon(daemon);
+			return thread;
+		}
+
+		// Thread.ofVirtual().name(name).unstarted(task), found at run time so the player still builds for Java 8
+		Class<?> builderType;
+		Object builder;
+		try {
+			builderType = Class.forName("java.lang.Thread$Builder");
+			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new Exception("Virtual threads require Java 21 or later");
+		}
+		builder = builderType.getMethod("name", String.class).invoke(builder, name);
+		return (Thread) builderType.getMethod("unstarted", Runnable.class).invoke(builder, task);
+	}
+
+	/**
+	 * @return true if this JVM can run {@link #VIRTUAL_THREADS}
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+}
@@ -3,6 +3,10 @@
  */
 package jacs.player;
 
+import java.nio.ByteBuffer;
+
+import jmcc.Microcontroller;
+
 /**
  * Formatted Show Data for representing animatronic show designed to be used with an {@linkplain AnimatronicsShowPlayer}
  * <p>
@@ -47,6 +51,14 @@ package jacs.player;
  * columns. However, a data value MUST be provided for each column for every row and each line must terminate with a
  * comma. See the accompanying data files and utility programs for examples.
  * <p>
+ * Shows can also be stored in the binary {@link ShowFile} format, which is mapped into memory rather than parsed. Show
+ * data read that way keeps its motions in the mapped file, one frame after another, and only copies them into a 2D
+ * array if {@link #getServoMotions()} is called.
+ * <p>
+ * Motions that are mostly ramps and holds can be stored as {@link KeyframeTrack}s instead, which keep only the
+ * positions where motion changes course; see {@link #toKeyframes(int)}. Positions in between are worked out as the
+ * show plays.
+ * <p>
  * 
  * 
  * 
@@ -57,12 +69,29 @@ package jacs.player;
  */
 public class FormattedShowData {
 
+	/**
+	 * Frame rate assumed for shows that do not state their own
+	 */
+	public static final int DEFAULT_FRAMES_PER_SECOND = 30;
+
 	private String audioFile;
 	private byte[][] servoMotions;
 	private byte[] pinNumbers;
 
+	// Motions held frame after frame (position of servo i in frame f at f * servoCount + i), e.g. a mapped show file.
+	// Null when the show was created from a 2D array.
+	private ByteBuffer frameData;
+	private int frameCount;
+	private int framesPerSecond = DEFAULT_FRAMES_PER_SECOND;
+
+	// Motions held as keyframes, one track per servo. Null unless the show was created from tracks.
+	private KeyframeTrack[] keyframeTracks;
+
 	private byte[] recordedPinNumbers;
 
+	// Wire format of the servo motions for the last controller this show was played on
+	private CompiledShow compiledShow;
+
 	/**
 	 * Creates a package of show data to be used with an {@linkplain AnimatronicsShowPlayer}
 	 * <p>
@@ -109,6 +138,7 @@ public class FormattedShowData {
 		this.audioFile = audioFile;
 		this.pinNumbers = pinNumbers;
 		this.servoMotions = servoMotions;
+		this.frameCount = servoMotions.length == 0 ? 0 : servoMotions[0].length;
 		// this.recordedPinNumbers = recordedPinNumbers;
 		this.recordedPinNumbers = new byte[] {}; // empty array
 
@@ -119,13 +149,103 @@ public class FormattedShowData {
 		checkData();
 	}
 
+	/**
+	 * Creates a package of show data whose motions are stored frame after frame in a buffer, as in a
+	 * {@link ShowFile}. The buffer is used directly, not copied.
+	 * 
+	 * @param frameData
+	 *            positions of every servo for frame 0, then frame 1, and so on. The position of the servo on
+	 *            pinNumbers[i] in frame f is at index <code>f * pinNumbers.length + i</code> relative to the buffer's
+	 *            position.
+	 * @param frameCount
+	 *            number of frames in frameData
+	 * @param framesPerSecond
+	 *            rate at which the motions were recorded
+	 * @throws Exception
+	 *             if the buffer is too short for the given frames, or if any fields are blank
+	 */
+	FormattedShowData(String audioFile, byte[] pinNumbers, ByteBuffer frameData, int frameCount, int framesPerSecond)
+			throws Exception {
+		this.audioFile = audioFile;
+		this.pinNumbers = pinNumbers;
+		this.frameData = frameData.slice();
+		this.frameCount = frameCount;
+		this.framesPerSecond = framesPerSecond;
+		this.recordedPinNumbers = new byte[] {}; // empty array
+
+		if ((long) frameCount * pinNumbers.length > this.frameData.remaining())
+			throw new Exception("Show data ends before the last frame");
+
+		checkData();
+	}
+
+	/**
+	 * Creates a package of show data whose motions are stored as keyframes.
+	 * 
+	 * @param audioFile
+	 *            the path to the .WAV format audio file. "" denotes no audio file
+	 * @param pinNumbers
+	 *            pin of the servo driven by each track
+	 * @param keyframeTracks
+	 *            motion of each servo, all with the same number of frames
+	 * @param framesPerSecond
+	 *            rate at which the frames of the tracks are played
+	 * @throws Exception
+	 *             if there is not a track for every pin, the tracks differ in length, or any fields are blank
+	 */
+	public FormattedShowData(String audioFile, byte[] pinNumbers, KeyframeTrack[] keyframeTracks, int framesPerSecond)
+			throws Exception {
+		this.audioFile = audioFile;
+		this.pinNumbers = pinNumbers;
+		this.keyframeTracks = keyframeTracks;
+		this.frameCount = keyframeTracks.length == 0 ? 0 : keyframeTracks[0].getFrameCount();
+		this.framesPerSecond = framesPerSecond;
+		this.recordedPinNumbers = new byte[] {}; // empty array
+
+		if (framesPerSecond <= 0)
+			throw new Exception("Frames per second must be positive");
+
+		checkData();
+	}
+
+	/**
+	 * Converts the motions of this show to keyframes.
+	 * 
+	 * @param tolerance
+	 *            most a position may move from where it was, 0 to keep every position exactly
+	 * @return a show with the same audio, pins and frame rate, whose motions are {@link KeyframeTrack}s
+	 * @throws Exception
+	 *             if the tolerance is negative or the show has no frames
+	 */
+	public FormattedShowData toKeyframes(int tolerance) throws Exception {
+		KeyframeTrack[] tracks = new KeyframeTrack[pinNumbers.length];
+		byte[] motion = new byte[frameCount];
+		for (int servo = 0; servo < tracks.length; servo++) {
+			for (int frame = 0; frame < frameCount; frame++)
+				motion[frame] = getPosition(servo, frame);
+			tracks[servo] = KeyframeTrack.fromMotion(motion, tolerance);
+		}
+		return new FormattedShowData(audioFile, pinNumbers, tracks, framesPerSecond);
+	}
+
 	private void checkData() throws Exception {
-		if (pinNumbers.length != servoMotions.length)
-			throw new Exception("Motions not found for every servo");
+		if (keyframeTracks != null) {
+			if (pinNumbers.length != keyframeTracks.length)
+				throw new Exception("Motions not found for every servo");
+
+			for (int i = 0; i < keyframeTracks.length; i++) {
+				if (keyframeTracks[i].getFrameCount() != frameCount)
+					throw new Exception("Keyframe tracks must all end on the same frame");
+			}
+		} else if (frameData == null) {
+			if (pinNumbers.length != servoMotions.length)
+				throw new Exception("Motions not found for every servo");
 
-		for (int i = 0; i < servoMotions.length; i++) {
-			if (servoMotions[i].length != servoMotions[0].length)
-				throw new Exception("Motion array not rectangular - pad motion tracks to be same length and reformat");
+			for (int i = 0; i < servoMotions.length; i++) {
+				if (servoMotions[i].length != servoMotions[0].length)
+					throw new Exception(
+							"Motion array not rectangular - pad motion tracks to be same length and reformat");
+			}
 		}
 
 		if (areBlank())
@@ -134,7 +254,7 @@ public class FormattedShowData {
 	}
 
 	public boolean areBlank() {
-		if (audioFile.equals("") && (pinNumbers.length == 0 || servoMotions.length == 0))
+		if (audioFile.equals("") && (pinNumbers.length == 0 || frameCount == 0))
 			return true;
 		else
 			return false;
@@ -155,16 +275,97 @@ public class FormattedShowData {
 	}
 
 	/**
-	 * @return the servoMotions
+	 * @return the servoMotions. For show data held frame after frame, such as a mapped {@link ShowFile}, or as
+	 *         keyframes, this copies every motion into a new array on first use; prefer {@link #getPosition(int, int)}
+	 *         for such shows.
 	 */
 	public byte[][] getServoMotions() {
+		if (servoMotions == null && keyframeTracks != null) {
+			byte[][] motions = new byte[pinNumbers.length][];
+			for (int servo = 0; servo < pinNumbers.length; servo++)
+				motions[servo] = keyframeTracks[servo].toMotion();
+			servoMotions = motions;
+		} else if (servoMotions == null) {
+			byte[][] motions = new byte[pinNumbers.length][frameCount];
+			for (int frame = 0; frame < frameCount; frame++)
+				for (int servo = 0; servo < pinNumbers.length; servo++)
+					motions[servo][frame] = frameData.get(frame * pinNumbers.length + servo);
+			servoMotions = motions;
+		}
 		return servoMotions;
 	}
 
+	/**
+	 * @param servo
+	 *            index of the servo in {@link #getPinNumbers()}
+	 * @param frame
+	 *            index of the frame
+	 * @return the position of the servo in the frame
+	 */
+	public byte getPosition(int servo, int frame) {
+		if (keyframeTracks != null)
+			return keyframeTracks[servo].getPosition(frame);
+		if (frameData != null)
+			return frameData.get(frame * pinNumbers.length + servo);
+		return servoMotions[servo][frame];
+	}
+
+	/**
+	 * @return the number of servos, one per pin number
+	 */
+	public int getServoCount() {
+		return pinNumbers.length;
+	}
+
+	/**
+	 * @return the number of frames of servo motion
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return the rate at which the servo motions were recorded. {@value #DEFAULT_FRAMES_PER_SECOND} unless the show
+	 *         was read from a file that states otherwise.
+	 */
+	public int getFramesPerSecond() {
+		return framesPerSecond;
+	}
+
+	/**
+	 * @return true if the motions are held frame after frame in a buffer, such as a mapped {@link ShowFile}, rather
+	 *         than in arrays
+	 */
+	boolean hasFrameData() {
+		return frameData != null;
+	}
+
+	/**
+	 * @return the motion of each servo, or null if the show does not hold its motions as keyframes
+	 */
+	public KeyframeTrack[] getKeyframeTracks() {
+		return keyframeTracks;
+	}
+
 	/**
 	 * @return the recordedPinNumbers
 	 */
 	public byte[] getRecordedPinNumbers() {
 		return recordedPinNumbers;
 	}
+
+	/**
+	 * Returns the servo motions compiled to the wire format of the given card, compiling them only if this show has
+	 * not already been compiled for the same card and protocol.
+	 * 
+	 * @param microcontroller
+	 *            the card the show will be played on
+	 * @throws Exception
+	 *             if the compiled show would not fit in one array
+	 */
+	CompiledShow getCompiledShow(Microcontroller microcontroller) throws Exception {
+		if (compiledShow == null || !compiledShow.isCompiledFor(microcontroller))
+			compiledShow = new CompiledShow(this, microcontroller);
+		return compiledShow;
+	}
 }
@@ -0,0 +1,28 @@
+package jacs.player;
+
+/**
+ * Selects what the servo player does with frames whose deadline has already passed when it gets to them, because the
+ * serial port or the servo lag between commands has held it up for longer than a cycle.
+ */
+public enum FrameDropPolicy {
+
+	/**
+	 * Every frame is sent, late frames back to back until the player has caught up. Motion is complete but runs behind
+	 * the audio for as long as the player is behind.
+	 */
+	PLAY_ALL,
+
+	/**
+	 * Cycles whose deadline has passed are dropped and the player continues with the cycle due now, so motion stays
+	 * locked to the audio.
+	 */
+	SKIP_TO_CURRENT,
+
+	/**
+	 * The frames missed are replaced by a single frame: the one due now, which holds the latest target of every servo.
+	 * The player then continues with the next cycle. Servos reach the current position with one command each, even
+	 * when a cycle holds several frames.
+	 */
+	COALESCE
+
+}
@@ -0,0 +1,180 @@
+package jacs.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import jmcc.Maestro;
+import jmcc.Microcontroller;
+
+/**
+ * Translates the servo positions of one frame into the bytes the servo controller expects.
+ * <p>
+ * The frame is laid out as a fixed sequence of packets, each one complete controller command. A packet usually sets
+ * the target of one servo. For the native protocol of a Maestro that supports Set Multiple Targets, servos on
+ * consecutive pins share one packet, which cuts the bytes sent per frame.
+ * <p>
+ * An encoder may cover only some of the servos of a show, as when a show is split across several controllers.
+ * <p>
+ * Commands are encoded straight into the destination, so encoding a frame allocates nothing. An encoder keeps scratch
+ * space between calls and must only be used by one thread at a time.
+ */
+class FrameEncoder {
+
+	private final Microcontroller microcontroller;
+	private final byte[] pinNumbers;
+	private final int[] servos; // Index in the show's positions of each servo encoded
+
+	// Encoded servos (in pin number order) covered by each packet, and where each packet starts in a frame
+	private final int[][] packetServos;
+	private final int[] packetOffsets;
+	private final short[][] targets;
+
+	/**
+	 * @param pinNumbers
+	 *            pin of each servo of the show
+	 * @param microcontroller
+	 *            the card the show will be played on. Its current protocol is used.
+	 */
+	FrameEncoder(byte[] pinNumbers, Microcontroller microcontroller) {
+		this(ServoGroup.allServos(pinNumbers.length), pinNumbers, microcontroller);
+	}
+
+	/**
+	 * @param servos
+	 *            index in the show of each servo to encode
+	 * @param pinNumbers
+	 *            controller pin of each servo to encode
+	 * @param microcontroller
+	 *            the card the servos are attached to. Its current protocol is used.
+	 */
+	FrameEncoder(int[] servos, byte[] pinNumbers, Microcontroller microcontroller) {
+		this.microcontroller = microcontroller;
+		this.pinNumbers = pinNumbers;
+		this.servos = servos;
+
+		packetServos = planPackets(pinNumbers, canSetMultipleTargets(microcontroller));
+		packetOffsets = new int[packetServos.length + 1];
+		targets = new short[packetServos.length][];
+		for (int p = 0; p < packetServos.length; p++) {
+			packetOffsets[p + 1] = packetOffsets[p] + getPacketLength(packetServos[p].length, microcontroller);
+			targets[p] = new short[packetServos[p].length];
+		}
+	}
+
+	/**
+	 * Encodes one frame.
+	 *
+	 * @param positions
+	 *            position of every servo of the show, in the order of the show's pin numbers
+	 * @param positionsOffset
+	 *            index in positions of the first servo's position
+	 * @param dest
+	 *            buffer to write the frame into
+	 * @param destOffset
+	 *            position in dest of the first byte of the frame
+	 */
+	void encodeFrame(byte[] positions, int positionsOffset, byte[] dest, int destOffset) {
+		for (int p = 0; p < packetServos.length; p++) {
+			int[] packet = packetServos[p];
+			if (packet.length == 1) {
+				microcontroller.encodeSetTarget(pinNumbers[packet[0]], positions[positionsOffset + servos[packet[0]]],
+						dest, destOffset + packetOffsets[p]);
+			} else {
+				for (int i = 0; i < packet.length; i++)
+					targets[p][i] = (short) (positions[positionsOffset + servos[packet[i]]] & 0xFF);
+				((Maestro) microcontroller).encodeSetMultipleTargets(pinNumbers[packet[0]], targets[p], 0,
+						packet.length, dest, destOffset + packetOffsets[p]);
+			}
+		}
+	}
+
+	/**
+	 * @return bytes per frame
+	 */
+	int getFrameLength() {
+		return packetOffsets[packetServos.length];
+	}
+
+	/**
+	 * @return start of each packet relative to the start of its frame, followed by the frame length
+	 */
+	int[] getPacketOffsets() {
+		return packetOffsets;
+	}
+
+	/**
+	 * Works out the frame length the servos would have in the native protocol of a Maestro, so that a show played in
+	 * Mini-SSC can be told whether switching protocol would make it fit its serial line.
+	 *
+	 * @param pinNumbers
+	 *            controller pin of each servo
+	 * @return bytes per frame, with servos on consecutive pins sharing a Set Multiple Targets packet where the card
+	 *         supports it
+	 */
+	static int getNativeFrameLength(byte[] pinNumbers, Maestro maestro) {
+		int length = 0;
+		for (int[] packet : planPackets(pinNumbers, maestro.supportsMultipleTargets())) {
+			if (packet.length == 1)
+				length += maestro.getSetTargetNativeCommandLength();
+			else
+				length += maestro.getSetMultipleTargetsCommandLength(packet.length);
+		}
+		return length;
+	}
+
+	/**
+	 * Splits the servos of a show into packets. Servos on consecutive pins are grouped into one Set Multiple Targets
+	 * packet when grouped is true; otherwise each servo gets its own packet in show order.
+	 */
+	private static int[][] planPackets(final byte[] pinNumbers, boolean grouped) {
+		int[][] packets;
+		if (!grouped) {
+			packets = new int[pinNumbers.length][];
+			for (int i = 0; i < pinNumbers.length; i++)
+				packets[i] = new int[] { i };
+			return packets;
+		}
+
+		Integer[] byPin = new Integer[pinNumbers.length];
+		for (int i = 0; i < byPin.length; i++)
+			byPin[i] = i;
+		Arrays.sort(byPin, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return (pinNumbers[a] & 0xFF) - (pinNumbers[b] & 0xFF);
+			}
+		});
+
+		ArrayList<int[]> runs = new ArrayList<int[]>();
+		int start = 0;
+		for (int i = 1; i <= byPin.length; i++) {
+			if (i == byPin.length || (pinNumbers[byPin[i]] & 0xFF) != (pinNumbers[byPin[i - 1]] & 0xFF) + 1) {
+				int[] run = new int[i - start];
+				for (int j = 0; j < run.length; j++)
+					run[j] = byPin[start + j];
+				runs.add(run);
+				start = i;
+			}
+		}
+		return runs.toArray(new int[runs.size()][]);
+	}
+
+	/**
+	 * Set Multiple Targets is part of the Pololu protocol, so it is only used once the card has been switched to
+	 * {@link Microcontroller#NATIVE}. Mixing it with Mini-SSC commands would put the grouped servos on a different
+	 * pulse range from the rest.
+	 */
+	private static boolean canSetMultipleTargets(Microcontroller microcontroller) {
+		return microcontroller instanceof Maestro && microcontroller.getDefaultProtocol().equals(Microcontroller.NATIVE)
+				&& ((Maestro) microcontroller).supportsMultipleTargets();
+	}
+
+	private static int getPacketLength(int numberServos, Microcontroller microcontroller) {
+		if (numberServos == 1)
+			return microcontroller.getSetTargetCommandLength();
+		else
+			return ((Maestro) microcontroller).getSetMultipleTargetsCommandLength(numberServos);
+	}
+
+}
@@ -0,0 +1,204 @@
+package jacs.player;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Paces show playback against absolute {@link System#nanoTime()} deadlines. Cycle n of a show is due at
+ * <code>start + n / cyclesPerSecond</code> seconds, so the time spent sending one cycle never pushes back the cycles
+ * that follow it and timing error does not accumulate over a long show.
+ * <p>
+ * Waiting is a hybrid: the thread parks until shortly before the deadline and then spins for the remainder, which
+ * keeps cycle jitter well below a millisecond without burning a core between cycles.
+ * <p>
+ * Elapsed show time is normally measured with the system clock. In {@link SynchronizationMode#AUDIO_CLOCK} mode it is
+ * read from the frame position of the audio line instead, so cycles are released in step with what is audible.
+ * <p>
+ * Threads waiting while the schedule is paused are parked and unparked by {@link #resume()}, so playback continues
+ * as soon as it is resumed.
+ */
+class FrameScheduler {
+
+	/**
+	 * Time before a deadline at which the scheduler stops parking and starts spinning. Parking is only accurate to a
+	 * few tens of microseconds on most platforms.
+	 */
+	static final long SPIN_WINDOW_NANOS = 200000L;
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final int PAUSE_POLL_MILLIS = 100;
+
+	private final int cyclesPerSecond;
+	private volatile long startNanos;
+	private volatile long pausedAtNanos;
+	private volatile boolean paused = false;
+	private final ConcurrentLinkedQueue<Thread> pausedThreads = new ConcurrentLinkedQueue<Thread>();
+
+	private volatile SourceDataLine audioClock;
+	private long audioClockStartFrame;
+	private float audioClockFrameRate;
+
+	/**
+	 * @param cyclesPerSecond
+	 *            number of cycles the show advances each second
+	 */
+	FrameScheduler(int cyclesPerSecond) {
+		this.cyclesPerSecond = cyclesPerSecond;
+	}
+
+	/**
+	 * Marks cycle 0 as due now.
+	 */
+	void start() {
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Measures elapsed show time from the frame position of the given line from now on. The line should be open
+	 * and should not yet have played any of the show.
+	 * 
+	 * @param line
+	 *            the line playing the show audio
+	 */
+	void useAudioClock(SourceDataLine line) {
+		audioClockStartFrame = line.getLongFramePosition();
+		audioClockFrameRate = line.getFormat().getFrameRate();
+		audioClock = line;
+	}
+
+	/**
+	 * Returns to the system clock, continuing from the show time last reported by the audio line. Called once the
+	 * audio has finished so that any remaining servo cycles are still released.
+	 */
+	void releaseAudioClock() {
+		SourceDataLine line = audioClock;
+		if (line != null) {
+			startNanos = (paused ? pausedAtNanos : System.nanoTime()) - getAudioElapsedNanos(line);
+			audioClock = null;
+		}
+	}
+
+	private long getAudioElapsedNanos(SourceDataLine line) {
+		return (long) ((line.getLongFramePosition() - audioClockStartFrame) * NANOS_PER_SECOND / audioClockFrameRate);
+	}
+
+	/**
+	 * @return nanoseconds of show time played since {@link #start()}, excluding time spent paused
+	 */
+	long getElapsedNanos() {
+		SourceDataLine line = audioClock;
+		if (line != null)
+			return getAudioElapsedNanos(line);
+		return (paused ? pausedAtNanos : System.nanoTime()) - startNanos;
+	}
+
+	/**
+	 * @return the show time, in nanoseconds since {@link #start()}, at which the given cycle is due
+	 */
+	long getCycleTime(long cycle) {
+		return cycle * NANOS_PER_SECOND / cyclesPerSecond;
+	}
+
+	/**
+	 * @return the cycle whose deadline has most recently passed
+	 */
+	long getCurrentCycle() {
+		long elapsed = getElapsedNanos();
+		return elapsed < 0 ? 0 : elapsed * cyclesPerSecond / NANOS_PER_SECOND;
+	}
+
+	/**
+	 * @return nanoseconds until the given cycle is due, 0 or less if it is due now. While paused, the time after
+	 *         which to check again if not woken sooner.
+	 */
+	long getNanosUntilCycle(long cycle) {
+		if (paused)
+			return PAUSE_POLL_MILLIS * 1000000L;
+		return getCycleTime(cycle) - getElapsedNanos();
+	}
+
+	/**
+	 * Blocks until the given cycle is due. Returns immediately if the deadline has already passed.
+	 *
+	 * @param cycle
+	 *            the cycle to wait for, counted from {@link #start()}
+	 * @return how many nanoseconds after its deadline the cycle was released, 0 if on time
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	long awaitCycle(long cycle) throws InterruptedException {
+		long due = getCycleTime(cycle);
+		while (true) {
+			awaitResume();
+
+			long remaining = due - getElapsedNanos();
+			if (remaining > SPIN_WINDOW_NANOS) {
+				LockSupport.parkNanos(this, remaining - SPIN_WINDOW_NANOS);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				continue;
+			}
+			while (remaining > 0 && !paused) {
+				Thread.yield();
+				remaining = due - getElapsedNanos();
+			}
+			// Paused while spinning; the deadline moves once resumed
+			if (!paused)
+				return -remaining;
+		}
+	}
+
+	/**
+	 * Parks the calling thread for as long as the schedule is paused.
+	 */
+	private void awaitResume() throws InterruptedException {
+		if (!paused)
+			return;
+		Thread thread = Thread.currentThread();
+		pausedThreads.add(thread);
+		try {
+			// Registered before checking again, so a resume in between still unparks this thread
+			while (paused) {
+				LockSupport.park(this);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			}
+		} finally {
+			pausedThreads.remove(thread);
+		}
+	}
+
+	/**
+	 * Freezes the schedule. Threads waiting for a cycle stay blocked until {@link #resume()}.
+	 */
+	void pause() {
+		if (!paused) {
+			pausedAtNanos = System.nanoTime();
+			paused = true;
+		}
+	}
+
+	/**
+	 * Restarts the schedule, shifting every remaining deadline by the time spent paused, and wakes the threads
+	 * waiting for a cycle. The audio clock needs no adjustment since the line stops advancing while it is stopped.
+	 */
+	void resume() {
+		if (paused) {
+			startNanos += System.nanoTime() - pausedAtNanos;
+			paused = false;
+			for (Thread thread : pausedThreads)
+				LockSupport.unpark(thread);
+		}
+	}
+
+	boolean isPaused() {
+		return paused;
+	}
+
+	int getCyclesPerSecond() {
+		return cyclesPerSecond;
+	}
+
+}
@@ -0,0 +1,57 @@
+package jacs.player;
+
+import java.io.IOException;
+
+/**
+ * Supplies servo frames, already in the wire format of the servo controller, to the servo player.
+ * <p>
+ * Every frame has the same length and the same packet layout, so a frame can be sent whole or packet by packet.
+ */
+interface FrameSource {
+
+	/**
+	 * @return bytes per frame
+	 */
+	int getFrameLength();
+
+	/**
+	 * @return start of each packet relative to the start of its frame, followed by the frame length
+	 */
+	int[] getPacketOffsets();
+
+	/**
+	 * @return number of frames in the show
+	 */
+	long getFrameCount();
+
+	/**
+	 * @return true if {@link #readFrames(long, int, byte[], int)} can copy the given frames without waiting for them
+	 *         to be read. Sources held in memory are always ready.
+	 */
+	boolean isReady(long firstFrame, int frames);
+
+	/**
+	 * Copies consecutive frames into the given buffer. Sources that read ahead from disk expect frames to be asked for
+	 * in increasing order and may block until the frames are ready.
+	 *
+	 * @param firstFrame
+	 *            index of the first frame to copy
+	 * @param frames
+	 *            number of frames to copy
+	 * @param dest
+	 *            buffer to copy into
+	 * @param destOffset
+	 *            position in dest of the first byte of firstFrame
+	 * @throws IOException
+	 *             if the frames cannot be read
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for frames
+	 */
+	void readFrames(long firstFrame, int frames, byte[] dest, int destOffset) throws IOException, InterruptedException;
+
+	/**
+	 * Releases any file or thread held by the source. The source cannot be read afterwards.
+	 */
+	void close();
+
+}
@@ -0,0 +1,199 @@
+package jacs.player;
+
+import jmcc.Microcontroller;
+
+/**
+ * Servo motions of a show resampled while the show plays from the rate they were authored at to a higher output rate.
+ * <p>
+ * Output frame f falls at authored frame <code>f * sourceRate / outputRate</code>. Its whole part picks the authored
+ * positions around it and its fraction the weights they are blended with. Output frames repeat the same fractions,
+ * so the weights of each are worked out once, in fixed point, when the show is created. Reading a frame is then four
+ * multiplications per servo and the frame's encoding, with no per-frame allocation in the player.
+ * <p>
+ * Shows held as {@link KeyframeTrack}s are read the same way, but each position is taken from the straight line between
+ * the keys around it rather than blended, so they are played from their keys at any rate without first being expanded
+ * one position per frame. Shows played at the rate they were authored at, such as a mapped {@link ShowFile}, have each
+ * frame's positions encoded as they are, so playback starts without first compiling the whole show.
+ * <p>
+ * A show keeps scratch space between reads and must only be read by one thread at a time.
+ */
+class InterpolatedShow implements FrameSource {
+
+	private static final int WEIGHT_BITS = 16;
+	private static final int ONE = 1 << WEIGHT_BITS;
+
+	private final FormattedShowData data;
+	private final int[] servos;
+	private final FrameEncoder encoder;
+	private final Interpolation interpolation;
+	private final int sourceFramesPerSecond;
+	private final int outputFramesPerSecond;
+	private final long frameCount;
+	private final int frameLength;
+
+	// Weights of the authored positions before, at, after and two after each output frame, by the remainder of
+	// f * sourceFramesPerSecond / outputFramesPerSecond
+	private final int[] weights;
+	private final byte[] positions; // Scratch frame of every servo of the show
+
+	private final KeyframeTrack[] tracks; // Null unless the show is held as keyframes
+	private final int[] keys; // Key at or before the last frame read, for each servo of the show
+
+	/**
+	 * @param data
+	 *            the show
+	 * @param servos
+	 *            index in the show of each servo to play
+	 * @param pinNumbers
+	 *            controller pin of each servo to play
+	 * @param microcontroller
+	 *            the card the servos are attached to. Its current protocol is used.
+	 * @param interpolation
+	 *            how to blend authored positions
+	 * @param outputFramesPerSecond
+	 *            frames played each second
+	 */
+	InterpolatedShow(FormattedShowData data, int[] servos, byte[] pinNumbers, Microcontroller microcontroller,
+			Interpolation interpolation, int outputFramesPerSecond) {
+		this.data = data;
+		this.servos = servos;
+		this.interpolation = interpolation;
+		this.sourceFramesPerSecond = data.getFramesPerSecond();
+		this.outputFramesPerSecond = outputFramesPerSecond;
+		frameCount = (long) data.getFrameCount() * outputFramesPerSecond / sourceFramesPerSecond;
+
+		encoder = new FrameEncoder(servos, pinNumbers, microcontroller);
+		frameLength = encoder.getFrameLength();
+		positions = new byte[data.getServoCount()];
+		tracks = data.getKeyframeTracks();
+		keys = new int[data.getServoCount()];
+
+		weights = new int[4 * outputFramesPerSecond];
+		for (int phase = 0; phase < outputFramesPerSecond; phase++)
+			setWeights(phase, (double) phase / outputFramesPerSecond);
+	}
+
+	/**
+	 * Works out the weights of the four authored positions around a point a fraction t of the way from one authored
+	 * frame to the next.
+	 */
+	private void setWeights(int phase, double t) {
+		double t2 = t * t;
+		double t3 = t2 * t;
+		double w0 = 0, w1, w2, w3 = 0;
+		switch (interpolation) {
+		case LINEAR:
+			w1 = 1 - t;
+			w2 = t;
+			break;
+		case CUBIC_HERMITE:
+			// Hermite basis with Catmull-Rom tangents, expanded over the four positions
+			w0 = (-t3 + 2 * t2 - t) / 2;
+			w1 = (3 * t3 - 5 * t2 + 2) / 2;
+			w2 = (-3 * t3 + 4 * t2 + t) / 2;
+			w3 = (t3 - t2) / 2;
+			break;
+		case MINIMUM_JERK:
+			w2 = t3 * (10 - 15 * t + 6 * t2);
+			w1 = 1 - w2;
+			break;
+		default:
+			w1 = 1;
+			w2 = 0;
+		}
+		weights[4 * phase] = (int) Math.round(w0 * ONE);
+		weights[4 * phase + 1] = (int) Math.round(w1 * ONE);
+		weights[4 * phase + 2] = (int) Math.round(w2 * ONE);
+		weights[4 * phase + 3] = (int) Math.round(w3 * ONE);
+	}
+
+	@Override
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	@Override
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	@Override
+	public int[] getPacketOffsets() {
+		return encoder.getPacketOffsets();
+	}
+
+	@Override
+	public boolean isReady(long firstFrame, int frames) {
+		return true;
+	}
+
+	@Override
+	public void readFrames(long firstFrame, int frames, byte[] dest, int destOffset) {
+		for (int k = 0; k < frames; k++) {
+			long scaledFrame = (firstFrame + k) * sourceFramesPerSecond;
+			if (tracks != null)
+				readKeyframes(scaledFrame);
+			else if (sourceFramesPerSecond == outputFramesPerSecond)
+				readFrame((int) (firstFrame + k));
+			else
+				blend(scaledFrame);
+			encoder.encodeFrame(positions, 0, dest, destOffset + k * frameLength);
+		}
+	}
+
+	/**
+	 * Fills the scratch frame with the positions at authored frame <code>scaledFrame / outputFramesPerSecond</code>,
+	 * blended from the four authored positions around it.
+	 */
+	private void blend(long scaledFrame) {
+		int last = data.getFrameCount() - 1;
+		int frame = (int) (scaledFrame / outputFramesPerSecond);
+		int w = 4 * (int) (scaledFrame % outputFramesPerSecond);
+		int before = Math.min(Math.max(frame - 1, 0), last);
+		int after = Math.min(frame + 1, last);
+		int twoAfter = Math.min(frame + 2, last);
+		frame = Math.min(frame, last);
+
+		for (int servo : servos) {
+			int p0 = data.getPosition(servo, before) & 0xFF;
+			int p1 = data.getPosition(servo, frame) & 0xFF;
+			int p2 = data.getPosition(servo, after) & 0xFF;
+			int p3 = data.getPosition(servo, twoAfter) & 0xFF;
+			int position = (weights[w] * p0 + weights[w + 1] * p1 + weights[w + 2] * p2 + weights[w + 3] * p3
+					+ ONE / 2) >> WEIGHT_BITS;
+
+			// Keep the curve between the two authored positions it joins
+			int low = Math.min(p1, p2);
+			int high = Math.max(p1, p2);
+			positions[servo] = (byte) Math.max(low, Math.min(high, position));
+		}
+	}
+
+	/**
+	 * Fills the scratch frame with the positions of an authored frame.
+	 */
+	private void readFrame(int frame) {
+		for (int servo : servos)
+			positions[servo] = data.getPosition(servo, frame);
+	}
+
+	/**
+	 * Fills the scratch frame with the positions of the keyframe tracks at authored frame
+	 * <code>scaledFrame / outputFramesPerSecond</code>.
+	 */
+	private void readKeyframes(long scaledFrame) {
+		int frame = (int) (scaledFrame / outputFramesPerSecond);
+		for (int servo : servos) {
+			keys[servo] = tracks[servo].findKey(frame, keys[servo]);
+			positions[servo] = (byte) tracks[servo].getPosition(scaledFrame, outputFramesPerSecond, keys[servo]);
+		}
+	}
+
+	/**
+	 * Nothing to release; positions are read from the show data.
+	 */
+	@Override
+	public void close() {
+	}
+
+}
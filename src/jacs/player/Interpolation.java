@@ -0,0 +1,33 @@
+package jacs.player;
+
+/**
+ * Selects how servo motions authored at one frame rate are played at a higher output rate, so that servos move
+ * smoothly instead of stepping from one authored position to the next.
+ */
+public enum Interpolation {
+
+	/**
+	 * Authored frames are played as they are, one per output frame, at the player's frame rate. A show authored at any
+	 * other rate is refused, since it would play too fast or too slow for its audio.
+	 */
+	NONE,
+
+	/**
+	 * Servos move at constant speed from one authored position to the next.
+	 */
+	LINEAR,
+
+	/**
+	 * Servos follow a cubic Hermite curve through the authored positions, with the tangent at each position taken from
+	 * its neighbours (Catmull-Rom), so speed changes without a jump at authored frames. Between two authored frames
+	 * the curve stays within their positions, so it never overshoots a peak.
+	 */
+	CUBIC_HERMITE,
+
+	/**
+	 * Servos start and stop at every authored position along a minimum-jerk profile. Suited to sparse key poses
+	 * rather than motion recorded at full rate, which it makes pulse.
+	 */
+	MINIMUM_JERK
+
+}
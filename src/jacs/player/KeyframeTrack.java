@@ -0,0 +1,191 @@
+package jacs.player;
+
+import java.util.Arrays;
+
+/**
+ * The motion of one servo stored as key positions at some frames, with the servo moving in a straight line from one key
+ * to the next. Positions between keys are worked out when they are asked for, so a ramp or a hold of any length takes
+ * two keys instead of a position per frame, and a track can be read at fractional frames to play it at any frame
+ * rate.
+ * <p>
+ * Tracks recorded or authored one position per frame are converted with {@link #fromMotion(byte[], int)}, which keeps
+ * only the keys needed to stay within a given distance of every original position.
+ */
+public class KeyframeTrack {
+
+	private final int[] keyFrames;
+	private final byte[] keyPositions;
+
+	/**
+	 * @param keyFrames
+	 *            frame of each key, starting at 0 and increasing. The last key is the last frame of the track.
+	 * @param keyPositions
+	 *            position of the servo at each key, between [0, 254]
+	 * @throws Exception
+	 *             if there are no keys, the arrays differ in length, or the frames do not start at 0 and increase
+	 */
+	public KeyframeTrack(int[] keyFrames, byte[] keyPositions) throws Exception {
+		if (keyFrames.length == 0 || keyFrames.length != keyPositions.length)
+			throw new Exception("A position is needed for every key, and at least one key");
+		if (keyFrames[0] != 0)
+			throw new Exception("The first key must be at frame 0");
+		for (int key = 1; key < keyFrames.length; key++) {
+			if (keyFrames[key] <= keyFrames[key - 1])
+				throw new Exception("Key frames must increase");
+		}
+		this.keyFrames = keyFrames;
+		this.keyPositions = keyPositions;
+	}
+
+	/**
+	 * Converts a motion stored one position per frame. Keys are placed greedily: each straight line is extended frame
+	 * by frame for as long as a line from its first key to the current position passes within the tolerance of every
+	 * position in between, which takes one pass over the motion.
+	 *
+	 * @param motion
+	 *            position of the servo in each frame
+	 * @param tolerance
+	 *            most a position of the track may differ from the motion, 0 to reproduce it exactly
+	 * @return a track that differs from the motion by at most the tolerance at every frame
+	 * @throws Exception
+	 *             if the motion is empty or the tolerance is negative
+	 */
+	public static KeyframeTrack fromMotion(byte[] motion, int tolerance) throws Exception {
+		if (motion.length == 0)
+			throw new Exception("Motion has no frames");
+		if (tolerance < 0)
+			throw new Exception("Tolerance must not be negative");
+
+		int[] frames = new int[16];
+		byte[] positions = new byte[16];
+		int keys = 1;
+		positions[0] = motion[0];
+
+		// Slopes from the last key that pass within the tolerance of every position since it
+		int anchor = 0;
+		int anchorPosition = motion[0] & 0xFF;
+		double low = Double.NEGATIVE_INFINITY;
+		double high = Double.POSITIVE_INFINITY;
+		for (int frame = 1; frame < motion.length; frame++) {
+			int position = motion[frame] & 0xFF;
+			double slope = (double) (position - anchorPosition) / (frame - anchor);
+			if (slope < low || slope > high) {
+				// The line cannot reach this position; end it at the previous frame
+				if (keys == frames.length) {
+					frames = Arrays.copyOf(frames, keys * 2);
+					positions = Arrays.copyOf(positions, keys * 2);
+				}
+				anchor = frame - 1;
+				anchorPosition = motion[anchor] & 0xFF;
+				frames[keys] = anchor;
+				positions[keys++] = motion[anchor];
+				low = Double.NEGATIVE_INFINITY;
+				high = Double.POSITIVE_INFINITY;
+			}
+			low = Math.max(low, (double) (position - tolerance - anchorPosition) / (frame - anchor));
+			high = Math.min(high, (double) (position + tolerance - anchorPosition) / (frame - anchor));
+		}
+		if (motion.length > 1) {
+			frames = Arrays.copyOf(frames, keys + 1);
+			positions = Arrays.copyOf(positions, keys + 1);
+			frames[keys] = motion.length - 1;
+			positions[keys++] = motion[motion.length - 1];
+		}
+		return new KeyframeTrack(Arrays.copyOf(frames, keys), Arrays.copyOf(positions, keys));
+	}
+
+	/**
+	 * @return number of frames from the first key to the last
+	 */
+	public int getFrameCount() {
+		return keyFrames[keyFrames.length - 1] + 1;
+	}
+
+	/**
+	 * @return number of keys stored
+	 */
+	public int getKeyCount() {
+		return keyFrames.length;
+	}
+
+	/**
+	 * @return the frame of the given key
+	 */
+	public int getKeyFrame(int key) {
+		return keyFrames[key];
+	}
+
+	/**
+	 * @return the position of the servo at the given key
+	 */
+	public byte getKeyPosition(int key) {
+		return keyPositions[key];
+	}
+
+	/**
+	 * @return the position of the servo in the given frame. Frames after the last key hold its position.
+	 */
+	public byte getPosition(int frame) {
+		return (byte) getPosition(frame, 1, findKey(frame, 0));
+	}
+
+	/**
+	 * @param frame
+	 *            frame, which may fall between two frames, to play a track at a rate other than the one it was
+	 *            authored at
+	 * @return the position of the servo at the given frame, rounded to the nearest step
+	 */
+	public byte getPosition(double frame) {
+		int scale = 1 << 16;
+		long scaledFrame = Math.round(frame * scale);
+		return (byte) getPosition(scaledFrame, scale, findKey((int) (scaledFrame / scale), 0));
+	}
+
+	/**
+	 * @return the position of the servo at frame <code>scaledFrame / scale</code>, from 0 to 255
+	 * @param key
+	 *            the key at or before the frame, from {@link #findKey(int, int)}
+	 */
+	int getPosition(long scaledFrame, int scale, int key) {
+		int start = keyPositions[key] & 0xFF;
+		if (key == keyFrames.length - 1 || scaledFrame <= (long) keyFrames[key] * scale)
+			return start;
+		int end = keyPositions[key + 1] & 0xFF;
+		long span = (long) (keyFrames[key + 1] - keyFrames[key]) * scale;
+		long elapsed = scaledFrame - (long) keyFrames[key] * scale;
+		return start + (int) Math.floorDiv(2 * (end - start) * elapsed + span, 2 * span);
+	}
+
+	/**
+	 * Finds the last key at or before a frame. Playback reads frames in order, so the key found for the previous
+	 * frame is tried first.
+	 *
+	 * @param hint
+	 *            key found for an earlier frame, or 0
+	 * @return the key at or before the given frame
+	 */
+	int findKey(int frame, int hint) {
+		if (hint < keyFrames.length && keyFrames[hint] <= frame) {
+			if (hint == keyFrames.length - 1 || frame < keyFrames[hint + 1])
+				return hint;
+			if (hint + 2 == keyFrames.length || frame < keyFrames[hint + 2])
+				return hint + 1;
+		}
+		int key = Arrays.binarySearch(keyFrames, frame);
+		return key >= 0 ? key : Math.max(0, -key - 2);
+	}
+
+	/**
+	 * @return the position of the servo in each frame
+	 */
+	public byte[] toMotion() {
+		byte[] motion = new byte[getFrameCount()];
+		int key = 0;
+		for (int frame = 0; frame < motion.length; frame++) {
+			key = findKey(frame, key);
+			motion[frame] = (byte) getPosition(frame, 1, key);
+		}
+		return motion;
+	}
+
+}
@@ -0,0 +1,123 @@
+package jacs.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds into buckets whose width grows with the duration, so every bucket is within 12.5%
+ * of the durations it holds. Recording takes a few atomic increments and no locks or allocation, so it can be left
+ * on in the output threads, and the histogram can be read from any thread while it is being filled.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Adds one duration. Negative durations count as 0.
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(getBucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+
+		long largest;
+		while (nanos > (largest = max.get()) && !max.compareAndSet(largest, nanos))
+			;
+	}
+
+	/**
+	 * Durations below 2 * SUB_BUCKETS have a bucket each. Above that, each power of two is split into SUB_BUCKETS
+	 * buckets of equal width.
+	 */
+	private static int getBucket(long nanos) {
+		if (nanos < 2 * SUB_BUCKETS)
+			return (int) nanos;
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the largest duration that falls in the given bucket
+	 */
+	private static long getBucketLimit(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return number of durations recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return mean of the durations recorded, 0 if there are none
+	 */
+	public long getMeanNanos() {
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	/**
+	 * @return longest duration recorded
+	 */
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * @param fraction
+	 *            between 0 and 1, for example 0.99 for the 99th percentile
+	 * @return a duration at least as long as the given fraction of the durations recorded, accurate to the width of
+	 *         its bucket
+	 */
+	public long getPercentileNanos(double fraction) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= rank)
+				return Math.min(getBucketLimit(bucket), max.get());
+		}
+		return max.get(); // Recorded while being read
+	}
+
+	/**
+	 * Forgets every duration recorded. Durations recorded at the same time may be partly kept.
+	 */
+	public void reset() {
+		for (int bucket = 0; bucket < BUCKETS; bucket++)
+			counts.set(bucket, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return count, mean, 50th and 99th percentiles and maximum, in microseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%dus p50=%dus p99=%dus max=%dus", getCount(), getMeanNanos() / 1000,
+				getPercentileNanos(0.5) / 1000, getPercentileNanos(0.99) / 1000, getMaxNanos() / 1000);
+	}
+
+}
@@ -0,0 +1,25 @@
+package jacs.player;
+
+import java.io.IOException;
+
+/**
+ * Part of a show that reads from disk ahead of playback, so that a {@link ShowScheduler} can do the reading on a
+ * thread of its own instead of on the threads that send output.
+ */
+interface PrefetchTask {
+
+	/**
+	 * Reads ahead as far as there is room, without waiting for more room to be made.
+	 *
+	 * @return false once there is nothing more to read
+	 * @throws IOException
+	 *             if the data cannot be read. The task is then finished.
+	 */
+	boolean prefetch() throws IOException;
+
+	/**
+	 * Called once on the reader thread after the last read, or when the scheduler shuts down.
+	 */
+	void finishReading();
+
+}
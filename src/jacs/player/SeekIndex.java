@@ -0,0 +1,158 @@
+package jacs.player;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Translates a show position in milliseconds into a servo frame and an audio byte offset that start at the same
+ * instant. A position is first rounded down to a servo frame; the audio offset is the audio frame playing at the
+ * time of that servo frame, so servo motion and audio stay frame-exact after a seek.
+ * <p>
+ * For uncompressed WAV files the offset of the sample data in the file is located once, and audio is opened directly
+ * at any position without reading what comes before it. Other files are opened from the start and skipped forward.
+ */
+class SeekIndex {
+
+	private final int servoFramesPerSecond;
+
+	private File audioFile;
+	private AudioFormat audioFormat;
+	private long audioDataOffset = -1; // Position of the first sample in the file, -1 if not directly seekable
+	private long audioDataLength;
+
+	/**
+	 * @param servoFramesPerSecond
+	 *            servo frames played each second
+	 */
+	SeekIndex(int servoFramesPerSecond) {
+		this.servoFramesPerSecond = servoFramesPerSecond;
+	}
+
+	/**
+	 * Reads the format of the show audio and, for WAV files, where its samples start.
+	 *
+	 * @param audioFile
+	 *            the show audio
+	 * @throws UnsupportedAudioFileException
+	 *             if the file is not a supported audio file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	void indexAudio(File audioFile) throws UnsupportedAudioFileException, IOException {
+		AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(audioFile);
+		this.audioFile = audioFile;
+		this.audioFormat = fileFormat.getFormat();
+		this.audioDataOffset = -1;
+
+		AudioFormat.Encoding encoding = audioFormat.getEncoding();
+		boolean pcm = encoding.equals(AudioFormat.Encoding.PCM_SIGNED)
+				|| encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED) || encoding.equals(AudioFormat.Encoding.PCM_FLOAT);
+		if (pcm && fileFormat.getType().equals(AudioFileFormat.Type.WAVE) && audioFormat.getFrameSize() > 0)
+			findWaveData(audioFile);
+	}
+
+	/**
+	 * Walks the RIFF chunks of a WAV file to the data chunk. Leaves the audio unseekable if the file is not laid out
+	 * as expected.
+	 */
+	private void findWaveData(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] header = new byte[12];
+			in.readFully(header);
+			if (!new String(header, 0, 4, "US-ASCII").equals("RIFF")
+					|| !new String(header, 8, 4, "US-ASCII").equals("WAVE"))
+				return;
+
+			byte[] chunk = new byte[8];
+			while (in.getFilePointer() + 8 <= in.length()) {
+				in.readFully(chunk);
+				long size = (chunk[4] & 0xFFL) | (chunk[5] & 0xFFL) << 8 | (chunk[6] & 0xFFL) << 16
+						| (chunk[7] & 0xFFL) << 24;
+				if (new String(chunk, 0, 4, "US-ASCII").equals("data")) {
+					audioDataOffset = in.getFilePointer();
+					audioDataLength = Math.min(size, in.length() - audioDataOffset);
+					return;
+				}
+				in.seek(in.getFilePointer() + size + (size & 1)); // Chunks are padded to an even length
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the servo frame playing at the given position
+	 */
+	long getServoFrame(long millis) {
+		return millis * servoFramesPerSecond / 1000;
+	}
+
+	/**
+	 * @return the offset into the audio samples, in whole audio frames, of the servo frame playing at the given
+	 *         position
+	 */
+	long getAudioByte(long millis) {
+		long audioFrame = (long) (getServoFrame(millis) * (double) audioFormat.getFrameRate() / servoFramesPerSecond);
+		return audioFrame * audioFormat.getFrameSize();
+	}
+
+	/**
+	 * @return format of the indexed audio
+	 */
+	AudioFormat getAudioFormat() {
+		return audioFormat;
+	}
+
+	/**
+	 * Opens the indexed audio at the given offset into its samples.
+	 *
+	 * @param audioByte
+	 *            offset from {@link #getAudioByte(long)}
+	 * @return a stream whose first byte is the sample at audioByte
+	 * @throws UnsupportedAudioFileException
+	 *             if the file is not a supported audio file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	AudioInputStream openAudio(long audioByte) throws UnsupportedAudioFileException, IOException {
+		if (audioDataOffset >= 0) {
+			long start = Math.min(audioByte, audioDataLength);
+			FileInputStream in = new FileInputStream(audioFile);
+			in.getChannel().position(audioDataOffset + start);
+			return new AudioInputStream(new BufferedInputStream(in), audioFormat,
+					(audioDataLength - start) / audioFormat.getFrameSize());
+		}
+
+		AudioInputStream stream = AudioSystem.getAudioInputStream(audioFile);
+		skipFully(stream, audioByte);
+		return stream;
+	}
+
+	private static void skipFully(InputStream stream, long bytes) throws IOException {
+		byte[] discard = null;
+		while (bytes > 0) {
+			long skipped = stream.skip(bytes);
+			if (skipped <= 0) {
+				// Some streams only skip what is buffered; read through the rest
+				if (discard == null)
+					discard = new byte[8192];
+				skipped = stream.read(discard, 0, (int) Math.min(discard.length, bytes));
+				if (skipped < 0)
+					return;
+			}
+			bytes -= skipped;
+		}
+	}
+
+}
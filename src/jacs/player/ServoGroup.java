@@ -0,0 +1,93 @@
+package jacs.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import jacs.config.MicrocontrollerConnection;
+
+/**
+ * The servos of a show that are driven by one controller, with the controller pin each one is attached to. A show
+ * split across several controllers is played as one group per controller, each sent by its own servo player.
+ */
+class ServoGroup {
+
+	final MicrocontrollerConnection connection;
+	final int[] servos; // Index in the show of each servo of the group
+	final byte[] pinNumbers; // Controller pin of each servo of the group
+	FrameSource source; // Wire data for the group, set once compiled or opened
+	int baudRate; // Line speed chosen for the show
+	boolean sparse; // Only packets that changed are sent; the controller moves the servos in between
+
+	ServoGroup(MicrocontrollerConnection connection, int[] servos, byte[] pinNumbers) {
+		this.connection = connection;
+		this.servos = servos;
+		this.pinNumbers = pinNumbers;
+	}
+
+	/**
+	 * @return true if the group drives every servo of a show with the given pins, on the pins the show names
+	 */
+	boolean isWholeShow(byte[] showPinNumbers) {
+		return Arrays.equals(servos, allServos(showPinNumbers.length)) && Arrays.equals(pinNumbers, showPinNumbers);
+	}
+
+	/**
+	 * @return the indices 0 to count - 1
+	 */
+	static int[] allServos(int count) {
+		int[] servos = new int[count];
+		for (int i = 0; i < count; i++)
+			servos[i] = i;
+		return servos;
+	}
+
+	/**
+	 * Splits the servos of a show by controller. A show pin with a route goes to the routed connection and pin; any
+	 * other pin goes to the default connection unchanged. The default connection's group comes first and is always
+	 * present, even if every servo is routed elsewhere.
+	 *
+	 * @param showPinNumbers
+	 *            pin of each servo of the show
+	 * @param defaultConnection
+	 *            connection for pins without a route
+	 * @param routeConnections
+	 *            connection for each routed show pin
+	 * @param routePins
+	 *            controller pin for each routed show pin
+	 * @return one group per connection, in order of first use
+	 */
+	static ArrayList<ServoGroup> plan(byte[] showPinNumbers, MicrocontrollerConnection defaultConnection,
+			Map<Byte, MicrocontrollerConnection> routeConnections, Map<Byte, Byte> routePins) {
+		ArrayList<MicrocontrollerConnection> connections = new ArrayList<MicrocontrollerConnection>();
+		connections.add(defaultConnection);
+		MicrocontrollerConnection[] servoConnections = new MicrocontrollerConnection[showPinNumbers.length];
+		for (int i = 0; i < showPinNumbers.length; i++) {
+			MicrocontrollerConnection connection = routeConnections.get(showPinNumbers[i]);
+			servoConnections[i] = connection == null ? defaultConnection : connection;
+			if (!connections.contains(servoConnections[i]))
+				connections.add(servoConnections[i]);
+		}
+
+		ArrayList<ServoGroup> groups = new ArrayList<ServoGroup>();
+		for (MicrocontrollerConnection connection : connections) {
+			int count = 0;
+			for (int i = 0; i < showPinNumbers.length; i++)
+				if (servoConnections[i] == connection)
+					count++;
+
+			int[] servos = new int[count];
+			byte[] pinNumbers = new byte[count];
+			for (int i = 0, j = 0; i < showPinNumbers.length; i++) {
+				if (servoConnections[i] == connection) {
+					Byte routedPin = routePins.get(showPinNumbers[i]);
+					servos[j] = i;
+					pinNumbers[j++] = routedPin == null ? showPinNumbers[i] : routedPin;
+				}
+			}
+			groups.add(new ServoGroup(connection, servos, pinNumbers));
+		}
+		return groups;
+	}
+
+}
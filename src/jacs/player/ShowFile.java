@@ -0,0 +1,190 @@
+package jacs.player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes shows in the binary .jshow format. Unlike a CSV file, a .jshow file is not parsed: its servo
+ * motions are mapped into memory and used in place by the {@link FormattedShowData} returned from {@link #read}, so
+ * opening even an hour-long show takes a few milliseconds and creates no per-value garbage. Shows too long to map can
+ * still be played from the file a chunk at a time with {@link AnimatronicsShowPlayer#streamShow(String)}.
+ * <p>
+ * <b>Layout</b> (all numbers big endian):
+ * <ul>
+ * <li>4 bytes: the characters "JSHW"
+ * <li>2 bytes: format version, currently 1
+ * <li>2 bytes: number of servos, n
+ * <li>4 bytes: frames per second
+ * <li>4 bytes: number of frames, unsigned
+ * <li>n bytes: pin number of each servo
+ * <li>2 bytes: length of the audio reference in bytes, followed by the audio file path in UTF-8. An empty path means
+ * the show has no audio. A relative path is resolved against the directory of the .jshow file if the audio file is
+ * found there, otherwise it is used as is.
+ * <li>n bytes per frame, frame after frame: the position of each servo, in pin order
+ * </ul>
+ */
+public class ShowFile {
+
+	/**
+	 * File name extension for show files
+	 */
+	public static final String EXTENSION = ".jshow";
+
+	private static final int MAGIC = 0x4A534857; // "JSHW"
+	private static final short VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Opens a show file, mapping its servo motions into memory.
+	 *
+	 * @param fileName
+	 *            path of the .jshow file
+	 * @return the show, backed by the mapped file
+	 * @throws Exception
+	 *             if the file cannot be read or is not a valid show file
+	 */
+	public static FormattedShowData read(String fileName) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ShowHeader header = readHeader(channel, fileName);
+
+			long dataLength = header.frameCount * header.pinNumbers.length;
+			if (header.dataOffset + dataLength > channel.size())
+				throw new Exception("Show file " + fileName + " ends before the last frame");
+			if (dataLength > Integer.MAX_VALUE || header.frameCount > Integer.MAX_VALUE)
+				throw new Exception("Show file " + fileName + " is too long to load and must be streamed");
+
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer frameData = channel.map(FileChannel.MapMode.READ_ONLY, header.dataOffset, dataLength);
+			return new FormattedShowData(header.audioFile, header.pinNumbers, frameData, (int) header.frameCount,
+					header.framesPerSecond);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes a show to a show file, replacing any existing file.
+	 *
+	 * @param fileName
+	 *            path of the .jshow file to write
+	 * @param data
+	 *            the show to store. Its audio file path is stored as given.
+	 * @throws Exception
+	 *             if the file cannot be written or the show has too many servos
+	 */
+	public static void write(String fileName, FormattedShowData data) throws Exception {
+		byte[] pinNumbers = data.getPinNumbers();
+		byte[] audioReference = data.getAudioFile().getBytes(UTF_8);
+		if (pinNumbers.length > Short.MAX_VALUE || audioReference.length > Short.MAX_VALUE)
+			throw new Exception("Show has too many servos or too long an audio path for a show file");
+
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+
+			ByteBuffer header = ByteBuffer.allocate(18 + pinNumbers.length + audioReference.length);
+			header.putInt(MAGIC).putShort(VERSION).putShort((short) pinNumbers.length);
+			header.putInt(data.getFramesPerSecond()).putInt(data.getFrameCount());
+			header.put(pinNumbers).putShort((short) audioReference.length).put(audioReference);
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header);
+
+			// Frame-major, written in blocks of whole frames
+			int framesPerBlock = Math.max(1, 65536 / Math.max(1, pinNumbers.length));
+			ByteBuffer block = ByteBuffer.allocate(framesPerBlock * pinNumbers.length);
+			for (int frame = 0; frame < data.getFrameCount(); frame++) {
+				for (int servo = 0; servo < pinNumbers.length; servo++)
+					block.put(data.getPosition(servo, frame));
+				if (!block.hasRemaining() || frame == data.getFrameCount() - 1) {
+					block.flip();
+					while (block.hasRemaining())
+						channel.write(block);
+					block.clear();
+				}
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Fixed fields at the start of a show file
+	 */
+	static class ShowHeader {
+		byte[] pinNumbers;
+		int framesPerSecond;
+		long frameCount;
+		String audioFile;
+		long dataOffset; // Position of frame 0 in the file
+	}
+
+	/**
+	 * Reads the header of a show file without reading any frames.
+	 */
+	static ShowHeader readHeader(String fileName) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			return readHeader(file.getChannel(), fileName);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the header at the start of the channel and leaves the channel positioned at frame 0.
+	 */
+	static ShowHeader readHeader(FileChannel channel, String fileName) throws Exception {
+		ByteBuffer fixed = readFully(channel, 16);
+		if (fixed == null || fixed.getInt() != MAGIC)
+			throw new Exception(fileName + " is not a show file");
+		short version = fixed.getShort();
+		if (version != VERSION)
+			throw new Exception("Show file " + fileName + " has unsupported version " + version);
+
+		ShowHeader header = new ShowHeader();
+		int servoCount = fixed.getShort();
+		header.framesPerSecond = fixed.getInt();
+		header.frameCount = fixed.getInt() & 0xFFFFFFFFL;
+		if (servoCount < 0 || header.framesPerSecond <= 0)
+			throw new Exception("Show file " + fileName + " has a damaged header");
+
+		ByteBuffer pins = readFully(channel, servoCount + 2);
+		if (pins == null)
+			throw new Exception("Show file " + fileName + " has a damaged header");
+		header.pinNumbers = new byte[servoCount];
+		pins.get(header.pinNumbers);
+
+		ByteBuffer audio = readFully(channel, pins.getShort() & 0xFFFF);
+		if (audio == null)
+			throw new Exception("Show file " + fileName + " has a damaged header");
+		header.audioFile = resolveAudioFile(new String(audio.array(), UTF_8), fileName);
+		header.dataOffset = channel.position();
+		return header;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				return null;
+		buffer.flip();
+		return buffer;
+	}
+
+	private static String resolveAudioFile(String audioFile, String showFileName) {
+		if (audioFile.equals("") || new File(audioFile).isAbsolute())
+			return audioFile;
+		File besideShow = new File(new File(showFileName).getAbsoluteFile().getParentFile(), audioFile);
+		return besideShow.exists() ? besideShow.getPath() : audioFile;
+	}
+
+}
@@ -0,0 +1,287 @@
+package jacs.player;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the servo and audio output of many shows from one timing loop and a small, fixed pool of threads. Without a
+ * scheduler each {@link AnimatronicsShowPlayer} plays on threads of its own, so the thread count grows with the number
+ * of characters; players given the same scheduler with
+ * {@link AnimatronicsShowPlayer#setShowScheduler(ShowScheduler)} share its threads instead.
+ * <p>
+ * The timing thread keeps every cycle that is waiting in deadline order. It waits for the earliest one the same way a
+ * {@link FrameScheduler} does, parking and then spinning, and hands the cycle to the pool. A task is queued again only
+ * once its cycle has finished, so the cycles of one output never overlap.
+ * <p>
+ * Pool threads never wait on the disk. Audio and streamed shows are read ahead by one reader thread, which tops up
+ * every show's buffers in turn, so a slow read delays only the reading of other shows, not their output.
+ */
+public class ShowScheduler {
+
+	/**
+	 * Pool threads used by {@link #ShowScheduler()}
+	 */
+	public static final int DEFAULT_POOL_THREADS = 4;
+
+	/**
+	 * Time the reader thread waits between passes over the shows it reads
+	 */
+	static final long READ_INTERVAL_NANOS = 1000000L;
+
+	private final ExecutorService pool;
+	private final Thread timingThread;
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+	private final Thread readerThread;
+	// Shows being read ahead. Added at the end, and removed only by the reader thread.
+	private final ArrayList<PrefetchTask> readers = new ArrayList<PrefetchTask>();
+	private volatile boolean shutdown = false;
+
+	/**
+	 * A task waiting for its next cycle
+	 */
+	private static class Entry implements Comparable<Entry> {
+		final CycleTask task;
+		long cycle = 0;
+		long dueNanos;
+
+		Entry(CycleTask task) {
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			return Long.signum(dueNanos - other.dueNanos);
+		}
+	}
+
+	/**
+	 * Creates a scheduler with {@link #DEFAULT_POOL_THREADS} pool threads.
+	 */
+	public ShowScheduler() {
+		this(DEFAULT_POOL_THREADS);
+	}
+
+	/**
+	 * @param poolThreads
+	 *            threads that send servo frames and audio. Cycles are short, so a few threads serve many shows.
+	 */
+	public ShowScheduler(int poolThreads) {
+		pool = Executors.newFixedThreadPool(poolThreads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Show output " + ++count);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		timingThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runTimingLoop();
+			}
+		}, "Show scheduler");
+		timingThread.setDaemon(true);
+		timingThread.start();
+
+		readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runReaderLoop();
+			}
+		}, "Show reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/**
+	 * Starts running a task, beginning with its cycle 0.
+	 */
+	void schedule(CycleTask task) {
+		Entry entry = new Entry(task);
+		enqueue(entry);
+	}
+
+	/**
+	 * Looks again at when the next cycle of a waiting task is due, for a task whose clock has changed, such as a show
+	 * that was just resumed.
+	 */
+	void reschedule(CycleTask task) {
+		synchronized (queue) {
+			for (Entry entry : queue) {
+				if (entry.task == task) {
+					queue.remove(entry);
+					entry.dueNanos = System.nanoTime() + Math.max(0, task.getNanosUntilCycle(entry.cycle));
+					queue.add(entry);
+					LockSupport.unpark(timingThread);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts reading ahead for a show on the reader thread, until the task has nothing more to read.
+	 */
+	void addReader(PrefetchTask reader) {
+		synchronized (readers) {
+			if (!shutdown) {
+				readers.add(reader);
+				LockSupport.unpark(readerThread);
+				return;
+			}
+		}
+		reader.finishReading();
+	}
+
+	private void enqueue(Entry entry) {
+		entry.dueNanos = System.nanoTime() + Math.max(0, entry.task.getNanosUntilCycle(entry.cycle));
+		synchronized (queue) {
+			if (!shutdown) {
+				queue.add(entry);
+				LockSupport.unpark(timingThread);
+				return;
+			}
+		}
+		entry.task.finish();
+	}
+
+	private void runTimingLoop() {
+		while (!shutdown) {
+			Entry next;
+			synchronized (queue) {
+				next = queue.peek();
+			}
+			if (next == null) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			// Park until shortly before the deadline. Any task queued meanwhile wakes the loop to look again.
+			long remaining = next.dueNanos - System.nanoTime();
+			if (remaining > FrameScheduler.SPIN_WINDOW_NANOS) {
+				LockSupport.parkNanos(this, remaining - FrameScheduler.SPIN_WINDOW_NANOS);
+				continue;
+			}
+			while (remaining > 0) {
+				Thread.yield();
+				remaining = next.dueNanos - System.nanoTime();
+			}
+
+			final Entry entry;
+			synchronized (queue) {
+				entry = queue.poll();
+			}
+			if (entry == null)
+				continue; // Shut down meanwhile
+
+			// The task's own clock decides; it may have been paused or be following the audio line
+			long until = entry.task.getNanosUntilCycle(entry.cycle);
+			if (until > 0) {
+				enqueue(entry);
+				continue;
+			}
+			try {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						runCycle(entry);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				entry.task.finish(); // Shut down meanwhile
+			}
+		}
+	}
+
+	private void runCycle(Entry entry) {
+		boolean more;
+		try {
+			more = entry.task.runCycle(entry.cycle++);
+		} catch (Exception e) {
+			e.printStackTrace();
+			more = false;
+		}
+		if (more)
+			enqueue(entry);
+		else
+			entry.task.finish();
+	}
+
+	private void runReaderLoop() {
+		while (!shutdown) {
+			int count;
+			synchronized (readers) {
+				count = readers.size();
+			}
+			if (count == 0) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			for (int i = 0; i < count; i++) {
+				PrefetchTask reader;
+				synchronized (readers) {
+					reader = readers.get(i);
+				}
+				boolean more;
+				try {
+					more = reader.prefetch();
+				} catch (Exception e) {
+					e.printStackTrace();
+					more = false;
+				}
+				if (!more) {
+					synchronized (readers) {
+						readers.remove(i--);
+					}
+					count--;
+					reader.finishReading();
+				}
+			}
+			LockSupport.parkNanos(this, READ_INTERVAL_NANOS);
+		}
+
+		ArrayList<PrefetchTask> remaining;
+		synchronized (readers) {
+			remaining = new ArrayList<PrefetchTask>(readers);
+			readers.clear();
+		}
+		for (PrefetchTask reader : remaining)
+			reader.finishReading();
+	}
+
+	/**
+	 * @return number of cycles waiting to run
+	 */
+	public int getQueuedTasks() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	/**
+	 * Stops the scheduler. Shows still playing on it finish their current cycle and then end.
+	 */
+	public void shutdown() {
+		ArrayList<Entry> waiting;
+		synchronized (queue) {
+			shutdown = true;
+			waiting = new ArrayList<Entry>(queue);
+			queue.clear();
+		}
+		LockSupport.unpark(timingThread);
+		LockSupport.unpark(readerThread);
+		pool.shutdown();
+		for (Entry entry : waiting)
+			entry.task.finish();
+	}
+
+}
@@ -0,0 +1,76 @@
+package jacs.player;
+
+/**
+ * Timing of the output of a show, gathered while it plays. Each measure is a {@link LatencyHistogram} that can be
+ * read at any time; the statistics are cleared when the next show starts, so once a show has ended they describe the
+ * whole of it.
+ * <p>
+ * Comparing the measures shows where time goes when a venue's setup cannot keep up: serial writes that approach the
+ * cycle time call for fewer servos per controller or batched output, while growing lateness with short writes points
+ * at the machine itself.
+ */
+public class ShowStatistics {
+
+	private final LatencyHistogram cycleTime = new LatencyHistogram();
+	private final LatencyHistogram serialWrite = new LatencyHistogram();
+	private final LatencyHistogram audioWrite = new LatencyHistogram();
+	private final LatencyHistogram scheduleWait = new LatencyHistogram();
+	private final LatencyHistogram lateness = new LatencyHistogram();
+
+	/**
+	 * @return time taken to send each servo cycle, including its serial writes and servo lag
+	 */
+	public LatencyHistogram getCycleTime() {
+		return cycleTime;
+	}
+
+	/**
+	 * @return time taken by each write to a controller's serial port
+	 */
+	public LatencyHistogram getSerialWrite() {
+		return serialWrite;
+	}
+
+	/**
+	 * @return time taken by each write to the audio line, which includes waiting for room in its buffer
+	 */
+	public LatencyHistogram getAudioWrite() {
+		return audioWrite;
+	}
+
+	/**
+	 * @return time each servo output thread spent waiting for its next deadline. Not recorded for shows played on a
+	 *         {@link ShowScheduler}, whose timing thread does the waiting.
+	 */
+	public LatencyHistogram getScheduleWait() {
+		return scheduleWait;
+	}
+
+	/**
+	 * @return how long after its deadline each servo cycle started
+	 */
+	public LatencyHistogram getLateness() {
+		return lateness;
+	}
+
+	/**
+	 * Clears every measure.
+	 */
+	public void reset() {
+		cycleTime.reset();
+		serialWrite.reset();
+		audioWrite.reset();
+		scheduleWait.reset();
+		lateness.reset();
+	}
+
+	/**
+	 * @return one line per measure
+	 */
+	@Override
+	public String toString() {
+		return "cycle time:    " + cycleTime + "\nserial write:  " + serialWrite + "\naudio write:   " + audioWrite
+				+ "\nschedule wait: " + scheduleWait + "\nlateness:      " + lateness;
+	}
+
+}
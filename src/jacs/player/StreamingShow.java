@@ -0,0 +1,355 @@
+package jacs.player;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import jmcc.Microcontroller;
+
+/**
+ * A show played straight from a .jshow file. The servo motions are read a chunk of frames at a time, translated to the
+ * wire format of each servo controller and handed to its servo player through a bounded queue. Chunk buffers are
+ * recycled, so memory use depends on the chunk size and the prefetch depth but not on the length of the show.
+ * <p>
+ * A show fanned out across several controllers is read once. Each controller's servos are a {@link GroupStream} of
+ * the show, and every chunk read is translated into a chunk of each of them, so the file is read only as fast as the
+ * slowest of them plays.
+ * <p>
+ * Chunks are read by a prefetch thread of the show's own, or for a show played on a {@link ShowScheduler}, by the
+ * scheduler's reader thread along with the chunks of other shows.
+ * <p>
+ * Frames must be read in increasing order. Frames that are skipped over are discarded.
+ */
+class StreamingShow implements PrefetchTask {
+
+	/**
+	 * Frames translated per chunk by default
+	 */
+	static final int DEFAULT_CHUNK_FRAMES = 256;
+
+	/**
+	 * Chunks read ahead of the servo player by default
+	 */
+	static final int DEFAULT_PREFETCH_CHUNKS = 4;
+
+	private final String fileName;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ShowFile.ShowHeader header;
+	private final int chunkFrames;
+	private final int prefetchChunks;
+	private final ByteBuffer positions; // Positions of the chunk being read
+	private long nextFrame; // First frame of the next chunk to read
+
+	private final ArrayList<GroupStream> streams = new ArrayList<GroupStream>();
+	private int openStreams = 0;
+	private Thread prefetchThread;
+	private volatile boolean closed = false;
+	private volatile IOException readError;
+
+	/**
+	 * A run of translated frames. A chunk with no frames marks the end of the stream.
+	 */
+	private static class Chunk {
+		final byte[] wireData;
+		long firstFrame;
+		int frames;
+
+		Chunk(int length) {
+			wireData = new byte[length];
+		}
+	}
+
+	/**
+	 * Opens a show file for streaming. Nothing is read past the header until {@link #start}.
+	 *
+	 * @param fileName
+	 *            path of the .jshow file
+	 * @param chunkFrames
+	 *            frames translated at a time, at least as many as a player reads at a time
+	 * @param prefetchChunks
+	 *            chunks read ahead of the servo players
+	 * @throws Exception
+	 *             if the file cannot be read or is not a valid show file
+	 */
+	StreamingShow(String fileName, int chunkFrames, int prefetchChunks) throws Exception {
+		this.fileName = fileName;
+		this.chunkFrames = chunkFrames;
+		this.prefetchChunks = prefetchChunks;
+		file = new RandomAccessFile(fileName, "r");
+		try {
+			channel = file.getChannel();
+			header = ShowFile.readHeader(channel, fileName);
+			if (header.dataOffset + header.frameCount * header.pinNumbers.length > channel.size())
+				throw new Exception("Show file " + fileName + " ends before the last frame");
+		} catch (Exception e) {
+			file.close();
+			throw e;
+		}
+		positions = ByteBuffer.allocate(chunkFrames * header.pinNumbers.length);
+	}
+
+	/**
+	 * Adds the servos played by one controller. Call before {@link #start}. The file is closed once every stream
+	 * added has been closed.
+	 *
+	 * @param servos
+	 *            index in the show of each servo to play, null for every servo
+	 * @param pinNumbers
+	 *            controller pin of each servo to play, null to use the pins of the show
+	 * @param microcontroller
+	 *            the card the servos are attached to. Its current protocol is used.
+	 * @return the frames of those servos
+	 */
+	GroupStream addGroup(int[] servos, byte[] pinNumbers, Microcontroller microcontroller) {
+		GroupStream stream = new GroupStream(servos == null ? new FrameEncoder(header.pinNumbers, microcontroller)
+				: new FrameEncoder(servos, pinNumbers, microcontroller));
+		streams.add(stream);
+		openStreams++;
+		return stream;
+	}
+
+	/**
+	 * Starts reading ahead from the given frame. Call before playback so the first chunks are ready in time.
+	 *
+	 * @param firstFrame
+	 *            first frame that will be played
+	 * @param showScheduler
+	 *            scheduler whose reader thread reads the show, or null to read on a thread of the show's own
+	 * @param executionMode
+	 *            kind of thread to read on when there is no scheduler
+	 * @throws Exception
+	 *             if the thread cannot be created
+	 */
+	void start(long firstFrame, ShowScheduler showScheduler, ExecutionMode executionMode) throws Exception {
+		nextFrame = firstFrame;
+		if (showScheduler != null) {
+			// Fill the queues now, so the first cycles do not find them empty
+			prefetch();
+			showScheduler.addReader(this);
+			return;
+		}
+
+		prefetchThread = executionMode.newThread(new Runnable() {
+			@Override
+			public void run() {
+				readAhead();
+			}
+		}, "Show prefetch", true);
+		prefetchThread.start();
+	}
+
+	/**
+	 * Reads chunks until the end of the show, waiting whenever every chunk of a stream is full.
+	 */
+	private void readAhead() {
+		try {
+			do {
+				for (GroupStream stream : streams)
+					if (!stream.closed)
+						stream.filling = stream.freeChunks.take();
+			} while (!closed && readChunk());
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Reads as many chunks as every stream has free chunks to hold them.
+	 */
+	@Override
+	public boolean prefetch() {
+		while (!closed) {
+			for (GroupStream stream : streams)
+				if (!stream.closed && stream.freeChunks.peek() == null)
+					return true;
+			for (GroupStream stream : streams)
+				if (!stream.closed)
+					stream.filling = stream.freeChunks.poll();
+			if (!readChunk())
+				return false;
+		}
+		return false;
+	}
+
+	/**
+	 * Nothing to release; the file is closed with the last stream.
+	 */
+	@Override
+	public void finishReading() {
+	}
+
+	/**
+	 * Reads the next frames and translates them into the chunk each stream is filling, then queues the chunks for the
+	 * servo players. Once every frame has been read, or reading fails, the chunks are queued with no frames instead,
+	 * which marks the end of the stream so a waiting player does not block forever.
+	 *
+	 * @return false once the end of the stream has been queued
+	 */
+	private boolean readChunk() {
+		int servoCount = header.pinNumbers.length;
+		int frames = (int) Math.max(0, Math.min(chunkFrames, header.frameCount - nextFrame));
+		try {
+			positions.clear().limit(frames * servoCount);
+			long filePosition = header.dataOffset + nextFrame * servoCount;
+			while (positions.hasRemaining()) {
+				int read = channel.read(positions, filePosition);
+				if (read < 0)
+					throw new IOException("Show file " + fileName + " ends before frame " + nextFrame);
+				filePosition += read;
+			}
+		} catch (IOException e) {
+			if (!closed)
+				readError = e;
+			frames = 0;
+		}
+
+		for (GroupStream stream : streams) {
+			Chunk chunk = stream.filling;
+			if (chunk == null)
+				continue; // Closed before it was given a chunk
+			stream.filling = null;
+			int frameLength = stream.encoder.getFrameLength();
+			for (int f = 0; f < frames; f++)
+				stream.encoder.encodeFrame(positions.array(), f * servoCount, chunk.wireData, f * frameLength);
+			chunk.firstFrame = nextFrame;
+			chunk.frames = frames;
+			stream.readyChunks.add(chunk); // There is room for every chunk
+		}
+		nextFrame += frames;
+		return frames > 0;
+	}
+
+	/**
+	 * @return path of the audio file of the show, empty if the show has no audio
+	 */
+	String getAudioFile() {
+		return header.audioFile;
+	}
+
+	/**
+	 * @return frames per second the show was recorded at
+	 */
+	int getFramesPerSecond() {
+		return header.framesPerSecond;
+	}
+
+	/**
+	 * Closes a stream. Once the last is closed, stops reading ahead and closes the show file.
+	 */
+	private synchronized void closeStream(GroupStream stream) {
+		if (stream.closed)
+			return;
+		stream.closed = true;
+		if (--openStreams > 0)
+			return;
+		closed = true;
+		if (prefetchThread != null)
+			prefetchThread.interrupt();
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The frames of the servos on one controller.
+	 */
+	class GroupStream implements FrameSource {
+
+		private final FrameEncoder encoder;
+		private final ArrayBlockingQueue<Chunk> freeChunks;
+		private final ArrayBlockingQueue<Chunk> readyChunks;
+		private Chunk filling; // Chunk the reader is translating into
+		private Chunk current; // Chunk the servo player is reading from
+		private volatile boolean closed = false;
+
+		private GroupStream(FrameEncoder encoder) {
+			this.encoder = encoder;
+			// One chunk more than the prefetch depth for the one being played
+			freeChunks = new ArrayBlockingQueue<Chunk>(prefetchChunks + 1);
+			readyChunks = new ArrayBlockingQueue<Chunk>(prefetchChunks + 1);
+			for (int i = 0; i <= prefetchChunks; i++)
+				freeChunks.add(new Chunk(chunkFrames * encoder.getFrameLength()));
+		}
+
+		@Override
+		public int getFrameLength() {
+			return encoder.getFrameLength();
+		}
+
+		@Override
+		public int[] getPacketOffsets() {
+			return encoder.getPacketOffsets();
+		}
+
+		@Override
+		public long getFrameCount() {
+			return header.frameCount;
+		}
+
+		/**
+		 * Moves to the chunk holding the first frame, as far as chunks have been read, without waiting for more.
+		 */
+		@Override
+		public boolean isReady(long firstFrame, int frames) {
+			while (current == null || firstFrame >= current.firstFrame + current.frames) {
+				Chunk next = readyChunks.peek();
+				if (next == null)
+					return false;
+				if (next.frames == 0)
+					return true; // End of the stream, which reading reports without waiting
+				if (current != null)
+					freeChunks.add(current);
+				current = readyChunks.poll();
+			}
+			if (firstFrame + frames <= current.firstFrame + current.frames)
+				return true;
+			Chunk next = readyChunks.peek();
+			return next != null && (next.frames == 0 || firstFrame + frames <= next.firstFrame + next.frames);
+		}
+
+		@Override
+		public void readFrames(long firstFrame, int frames, byte[] dest, int destOffset)
+				throws IOException, InterruptedException {
+			int frameLength = encoder.getFrameLength();
+			long frame = firstFrame;
+			while (frame < firstFrame + frames) {
+				while (current == null || frame >= current.firstFrame + current.frames) {
+					if (current != null)
+						freeChunks.put(current);
+					current = readyChunks.take();
+					if (current.frames == 0) {
+						// Leave the end marker for any later call
+						readyChunks.put(current);
+						Chunk end = current;
+						current = null;
+						if (readError != null)
+							throw readError;
+						throw new IOException("Show file " + fileName + " ended at frame " + end.firstFrame);
+					}
+				}
+				if (frame < current.firstFrame)
+					throw new IOException("Frame " + frame + " of " + fileName + " has already been streamed");
+
+				int count = (int) Math.min(firstFrame + frames - frame, current.firstFrame + current.frames - frame);
+				System.arraycopy(current.wireData, (int) (frame - current.firstFrame) * frameLength, dest,
+						destOffset + (int) (frame - firstFrame) * frameLength, count * frameLength);
+				frame += count;
+			}
+		}
+
+		/**
+		 * Stops reading into this stream, and closes the show file once every stream is closed.
+		 */
+		@Override
+		public void close() {
+			closeStream(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,22 @@
+package jacs.player;
+
+/**
+ * Selects the clock that decides which servo frame is due during playback.
+ */
+public enum SynchronizationMode {
+
+	/**
+	 * Servo frames follow {@link System#nanoTime()}. Audio is started at the same moment and is expected to keep pace.
+	 * This is the only mode available for shows without an audio file.
+	 */
+	SYSTEM_CLOCK,
+
+	/**
+	 * Servo frames follow the number of audio frames the sound device reports as played
+	 * ({@link javax.sound.sampled.DataLine#getLongFramePosition()}). Motion stays locked to what is audible, however
+	 * far the device clock drifts from the system clock over a long show. Falls back to the system clock when the show
+	 * has no audio or once the audio has finished.
+	 */
+	AUDIO_CLOCK
+
+}
@@ -2,7 +2,8 @@ package jacs.player;
 
 /**
  * This stores data related to timing and synchronization of audio and servo. Currently the player uses fixed values
- * that assume WAV format audio and 30 frames per second for servo playback.
+ * that assume 30 frames per second for servo playback. The audio byte rate defaults to CD quality WAV and is replaced
+ * by the rate of the actual audio file when a show starts.
  * 
  * @author Jared Cline
  *
@@ -21,7 +22,24 @@ class TimingSettings {
 
 	private int servoFramesPerCycle; // Only the value 30 FPS supported now
 	private int audioBytesPerCycle;
-	private int servoLag = 5; // This is a delay used to throttel servo commands
+	private int servoLag = 5; // This is a delay used to throttel servo commands, unbatched output only
+	private boolean batchedOutput = true; // One serial write per frame instead of one per command
+	private boolean deltaOutput = false; // Only send servos whose target changed since the last frame sent
+	private int keyframeInterval = 30; // Frames between full refreshes in delta mode, 0 for none
+	private SynchronizationMode synchronizationMode = SynchronizationMode.SYSTEM_CLOCK;
+	private FrameDropPolicy frameDropPolicy = FrameDropPolicy.PLAY_ALL;
+	private Interpolation interpolation = Interpolation.NONE; // Resampling of shows authored at another frame rate
+	private boolean controllerSmoothing = false; // Sparse targets that a Maestro moves between by itself
+	private int smoothingTolerance = 1; // Most a position may move when tracks are reduced to keys
+	private int smoothingRampMillis = 0; // Ease in and out of each move, 0 for constant speed
+
+	/**
+	 * Standard serial line speeds, slowest first, from which the lowest that carries a show is chosen. Every card in
+	 * {@link jmcc} handles all of them.
+	 */
+	static final int[] BAUD_RATES = { 9600, 14400, 19200, 38400, 57600, 115200 };
+	private static final int BITS_PER_BYTE = 10; // Start bit, 8 data bits, stop bit
+	private static final double MAX_LINE_LOAD = 0.9; // Share of each frame period the line may be kept busy
 
 	public TimingSettings(int servoFramesPerSecond, int cyclesPerSecond) throws Exception {
 		this.servoFramesPerSecond = servoFramesPerSecond;
@@ -104,6 +122,41 @@ class TimingSettings {
 		calculatePerCycleInfo(servoFramesPerSecond, cyclesPerSecond);
 	}
 
+	/**
+	 * @param bytesPerFrame
+	 *            bytes written to one controller each frame
+	 * @param packetsPerFrame
+	 *            commands or multi-target packets in those bytes, each followed by the servo lag in unbatched output
+	 * @param baudRate
+	 *            speed of the serial line
+	 * @return milliseconds it takes to send one frame
+	 */
+	double getFrameSendMillis(int bytesPerFrame, int packetsPerFrame, int baudRate) {
+		double millis = bytesPerFrame * BITS_PER_BYTE * 1000.0 / baudRate;
+		if (!batchedOutput)
+			millis += packetsPerFrame * servoLag;
+		return millis;
+	}
+
+	/**
+	 * @return true if a frame of the given size can be sent at the given baud rate with time to spare before the
+	 *         next frame is due
+	 */
+	boolean canCarry(int bytesPerFrame, int packetsPerFrame, int baudRate) {
+		return getFrameSendMillis(bytesPerFrame, packetsPerFrame, baudRate) <= MAX_LINE_LOAD * 1000.0
+				/ servoFramesPerSecond;
+	}
+
+	/**
+	 * @return the slowest of {@link #BAUD_RATES} that carries frames of the given size, -1 if none does
+	 */
+	int getLowestBaudRate(int bytesPerFrame, int packetsPerFrame) {
+		for (int baudRate : BAUD_RATES)
+			if (canCarry(bytesPerFrame, packetsPerFrame, baudRate))
+				return baudRate;
+		return -1;
+	}
+
 	/**
 	 * @return the servoFramesPerCycle
 	 */
@@ -130,4 +183,142 @@ class TimingSettings {
 		this.servoLag = servoLag;
 	}
 
+	/**
+	 * @return true if all servo commands of a cycle are sent with one serial write
+	 */
+	boolean isBatchedOutput() {
+		return batchedOutput;
+	}
+
+	/**
+	 * @param batchedOutput
+	 *            true to send all servo commands of a cycle with one serial write, false to send each command
+	 *            separately followed by a pause of {@link #getServoLag()} milliseconds
+	 */
+	void setBatchedOutput(boolean batchedOutput) {
+		this.batchedOutput = batchedOutput;
+	}
+
+	/**
+	 * @return true if only commands whose target changed since the last frame are sent
+	 */
+	boolean isDeltaOutput() {
+		return deltaOutput;
+	}
+
+	/**
+	 * @param deltaOutput
+	 *            true to send only commands whose target changed since the last frame
+	 */
+	void setDeltaOutput(boolean deltaOutput) {
+		this.deltaOutput = deltaOutput;
+	}
+
+	/**
+	 * @return number of frames between full refreshes of every servo in delta mode, 0 if never refreshed
+	 */
+	int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	/**
+	 * @param keyframeInterval
+	 *            number of frames between full refreshes of every servo in delta mode, 0 to never refresh
+	 */
+	void setKeyframeInterval(int keyframeInterval) {
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * @return the clock that servo playback follows
+	 */
+	SynchronizationMode getSynchronizationMode() {
+		return synchronizationMode;
+	}
+
+	/**
+	 * @param synchronizationMode
+	 *            the clock that servo playback follows
+	 */
+	void setSynchronizationMode(SynchronizationMode synchronizationMode) {
+		this.synchronizationMode = synchronizationMode;
+	}
+
+	/**
+	 * @return what the servo player does with frames it reaches after their deadline
+	 */
+	FrameDropPolicy getFrameDropPolicy() {
+		return frameDropPolicy;
+	}
+
+	/**
+	 * @param frameDropPolicy
+	 *            what the servo player does with frames it reaches after their deadline
+	 */
+	void setFrameDropPolicy(FrameDropPolicy frameDropPolicy) {
+		this.frameDropPolicy = frameDropPolicy;
+	}
+
+	/**
+	 * @return how shows authored at another frame rate are resampled to servoFramesPerSecond
+	 */
+	Interpolation getInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * @param interpolation
+	 *            how shows authored at another frame rate are resampled to servoFramesPerSecond
+	 */
+	void setInterpolation(Interpolation interpolation) {
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * @return true if Maestro cards are sent sparse targets with speed and acceleration limits
+	 */
+	boolean isControllerSmoothing() {
+		return controllerSmoothing;
+	}
+
+	/**
+	 * @param controllerSmoothing
+	 *            true to send Maestro cards sparse targets with speed and acceleration limits
+	 */
+	void setControllerSmoothing(boolean controllerSmoothing) {
+		this.controllerSmoothing = controllerSmoothing;
+	}
+
+	/**
+	 * @return most a position may move from the show's motion when tracks are reduced to keys for controller
+	 *         smoothing
+	 */
+	int getSmoothingTolerance() {
+		return smoothingTolerance;
+	}
+
+	/**
+	 * @param smoothingTolerance
+	 *            most a position may move from the show's motion when tracks are reduced to keys for controller
+	 *            smoothing
+	 */
+	void setSmoothingTolerance(int smoothingTolerance) {
+		this.smoothingTolerance = smoothingTolerance;
+	}
+
+	/**
+	 * @return milliseconds the controller takes to speed up and slow down at each key, 0 for constant speed
+	 */
+	int getSmoothingRampMillis() {
+		return smoothingRampMillis;
+	}
+
+	/**
+	 * @param smoothingRampMillis
+	 *            milliseconds the controller takes to speed up and slow down at each key, 0 for constant speed
+	 */
+	void setSmoothingRampMillis(int smoothingRampMillis) {
+		this.smoothingRampMillis = smoothingRampMillis;
+	}
+
 }
@@ -6,7 +6,12 @@ public class ArduinoUNO extends Arduino {
 	}
 
 	@Override
-	public byte[] buildCommandSetTargetNative(byte pin, short target) {
-		return buildCommandSetTargetMiniSSC(pin, (byte) target); // only Mini-SSC supported on Arduino
+	public int encodeSetTargetNative(byte pin, short target, byte[] dest, int offset) {
+		return encodeSetTargetMiniSSC(pin, (byte) target, dest, offset); // only Mini-SSC supported on Arduino
+	}
+
+	@Override
+	public int getSetTargetNativeCommandLength() {
+		return MINI_SSC_SET_TARGET_COMMAND_LENGTH;
 	}
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package jmcc;
 
+import jacs.config.ServoSpecs;
+
 public abstract class Maestro extends Microcontroller {
 
 	// Pololu values from Pololu manual -
@@ -12,6 +14,18 @@ public abstract class Maestro extends Microcontroller {
 	protected static final byte SET_ACCELERATION_COMMAND = (byte) 0x89;
 	protected static final byte GET_POSITION_COMMAND = (byte) 0x90;
 	protected static final byte GET_MOVING_STATE = (byte) 0x93;
+	protected static final byte SET_MULTIPLE_TARGETS_COMMAND = (byte) 0x9F; // Mini Maestro 12, 18 and 24 only
+
+	// Native targets are pulse widths in quarter-microseconds, sent as two 7-bit bytes, low bits first
+	protected static final int SET_TARGET_NATIVE_COMMAND_LENGTH = 4;
+	protected static final int MIN_TARGET_QUARTER_MICROS = ServoSpecs.DEFAULT_MIN_RANGE * 4;
+	protected static final int MAX_TARGET_QUARTER_MICROS = ServoSpecs.DEFAULT_MAX_RANGE * 4;
+	protected static final int MAX_POSITION = 254;
+
+	// Speed and acceleration limits are also two 7-bit bytes, low bits first
+	protected static final int SET_SPEED_COMMAND_LENGTH = 4;
+	protected static final int MAX_SPEED = 0x3FFF;
+	public static final int MAX_ACCELERATION = 255;
 
 	// Pololu pin information will vary with specific
 	// protected PinInfo[] pins;
@@ -41,24 +55,198 @@ public abstract class Maestro extends Microcontroller {
 			pins[pinIndex] = p;
 	}
 
-	public byte[] buildCommandSetTargetNative(byte pin, short target) {
-		// Create byte array according to Pololu User's Guide to set target using Pololu protocol
-		byte[] setTargetCmd = { SET_TARGET_COMMAND, (byte) pin, (byte) target }; // TODO POOJA/COURTNEY
-		return setTargetCmd;
+	/**
+	 * Encodes a Pololu protocol Set Target command. The position is scaled onto the default servo pulse range in
+	 * {@link ServoSpecs}, the same range the card maps Mini-SSC positions onto.
+	 * 
+	 * @param pin
+	 *            channel on the card
+	 * @param target
+	 *            position in the range [0, 254]
+	 * @return the number of bytes written
+	 */
+	@Override
+	public int encodeSetTargetNative(byte pin, short target, byte[] dest, int offset) {
+		// Write bytes according to Pololu User's Guide to set target using Pololu protocol
+		return encodeChannelValue(SET_TARGET_COMMAND, pin, positionToQuarterMicros(target), dest, offset);
+	}
+
+	/**
+	 * Writes a compact protocol command that sends a channel one 14-bit value as two 7-bit bytes, low bits first.
+	 * 
+	 * @return the number of bytes written
+	 */
+	private static int encodeChannelValue(byte command, byte pin, int value, byte[] dest, int offset) {
+		dest[offset] = command;
+		dest[offset + 1] = pin;
+		dest[offset + 2] = (byte) (value & 0x7F);
+		dest[offset + 3] = (byte) ((value >> 7) & 0x7F);
+		return SET_TARGET_NATIVE_COMMAND_LENGTH; // Set Speed and Set Acceleration have the same layout
+	}
+
+	public int getSetTargetNativeCommandLength() {
+		return SET_TARGET_NATIVE_COMMAND_LENGTH;
+	}
+
+	/**
+	 * @return true if the card accepts {@link #buildCommandSetMultipleTargets(byte, short[])}
+	 */
+	public boolean supportsMultipleTargets() {
+		return true;
+	}
+
+	/**
+	 * Builds a Pololu protocol Set Multiple Targets command, which moves a block of channels with consecutive numbers
+	 * in one packet: 3 bytes of header plus 2 bytes per channel, against 4 bytes per channel for separate Set Target
+	 * commands. Only supported by cards for which {@link #supportsMultipleTargets()} is true.
+	 * 
+	 * @param firstPin
+	 *            lowest channel of the block
+	 * @param targets
+	 *            positions in the range [0, 254] for channels firstPin, firstPin + 1, ...
+	 */
+	public byte[] buildCommandSetMultipleTargets(byte firstPin, short[] targets) {
+		byte[] setMultipleTargetsCmd = new byte[getSetMultipleTargetsCommandLength(targets.length)];
+		encodeSetMultipleTargets(firstPin, targets, 0, targets.length, setMultipleTargetsCmd, 0);
+		return setMultipleTargetsCmd;
+	}
+
+	/**
+	 * Encodes the command of {@link #buildCommandSetMultipleTargets(byte, short[])} into a buffer.
+	 * 
+	 * @param firstPin
+	 *            lowest channel of the block
+	 * @param targets
+	 *            positions in the range [0, 254]
+	 * @param targetsOffset
+	 *            index in targets of the position for firstPin
+	 * @param count
+	 *            number of channels in the block
+	 * @return the number of bytes written, {@link #getSetMultipleTargetsCommandLength(int)}
+	 */
+	public int encodeSetMultipleTargets(byte firstPin, short[] targets, int targetsOffset, int count, byte[] dest,
+			int offset) {
+		// Write bytes according to Pololu User's Guide to set multiple targets using Pololu protocol
+		dest[offset] = SET_MULTIPLE_TARGETS_COMMAND;
+		dest[offset + 1] = (byte) count;
+		dest[offset + 2] = firstPin;
+		for (int i = 0; i < count; i++)
+			encodeTarget(targets[targetsOffset + i], dest, offset + 3 + 2 * i);
+		return getSetMultipleTargetsCommandLength(count);
+	}
+
+	private static void encodeTarget(int position, byte[] dest, int offset) {
+		int quarterMicros = positionToQuarterMicros(position);
+		dest[offset] = (byte) (quarterMicros & 0x7F);
+		dest[offset + 1] = (byte) ((quarterMicros >> 7) & 0x7F);
+	}
+
+	/**
+	 * @return the number of bytes in a Set Multiple Targets command for the given number of channels
+	 */
+	public int getSetMultipleTargetsCommandLength(int numberTargets) {
+		return 3 + 2 * numberTargets;
+	}
 
+	/**
+	 * @param position
+	 *            position in the range [0, 254], clamped if outside it
+	 * @return the pulse width for the position in quarter-microseconds
+	 */
+	protected static int positionToQuarterMicros(int position) {
+		position = Math.max(0, Math.min(MAX_POSITION, position));
+		return MIN_TARGET_QUARTER_MICROS + position * (MAX_TARGET_QUARTER_MICROS - MIN_TARGET_QUARTER_MICROS)
+				/ MAX_POSITION;
 	}
 
-	public byte[] buildCommandSetSpeed(byte pin, short target) {
-		// Create byte array according to Pololu User's Guide to set speed using Pololu protocol
-		byte[] setSpeedCmd = { SET_SPEED_COMMAND, (byte) pin, (byte) target }; // TODO POOJA/COURTNEY
+	/**
+	 * Builds a Pololu protocol Set Speed command, which limits how fast the card moves a channel towards its target.
+	 * 
+	 * @param pin
+	 *            channel on the card
+	 * @param speed
+	 *            most the pulse width may change, in quarter-microseconds per 10 ms, or 0 for no limit
+	 */
+	public byte[] buildCommandSetSpeed(byte pin, short speed) {
+		byte[] setSpeedCmd = new byte[SET_SPEED_COMMAND_LENGTH];
+		encodeSetSpeed(pin, speed, setSpeedCmd, 0);
 		return setSpeedCmd;
+	}
 
+	/**
+	 * Encodes the command of {@link #buildCommandSetSpeed(byte, short)} into a buffer.
+	 * 
+	 * @return the number of bytes written, {@link #getSetSpeedCommandLength()}
+	 */
+	public int encodeSetSpeed(byte pin, short speed, byte[] dest, int offset) {
+		// Write bytes according to Pololu User's Guide to set speed using Pololu protocol
+		return encodeChannelValue(SET_SPEED_COMMAND, pin, speed, dest, offset);
 	}
 
-	public byte[] buildCommandSetAcceleration(byte pin, short target) {
-		// Create byte array according to Pololu User's Guide to set acceleration using Pololu protocol
-		byte[] getSetAccelerationCmd = { SET_ACCELERATION_COMMAND, (byte) 2, (byte) 127 }; // TODO POOJA/COURTNEY
-		return getSetAccelerationCmd;
+	/**
+	 * Builds a Pololu protocol Set Acceleration command, which limits how fast the speed of a channel changes, so the
+	 * card eases the servo in and out of each move.
+	 * 
+	 * @param pin
+	 *            channel on the card
+	 * @param acceleration
+	 *            most the speed may change, in quarter-microseconds per 10 ms per 80 ms, from 1 to
+	 *            {@value #MAX_ACCELERATION}, or 0 for no limit
+	 */
+	public byte[] buildCommandSetAcceleration(byte pin, short acceleration) {
+		byte[] setAccelerationCmd = new byte[SET_SPEED_COMMAND_LENGTH];
+		encodeSetAcceleration(pin, acceleration, setAccelerationCmd, 0);
+		return setAccelerationCmd;
+	}
+
+	/**
+	 * Encodes the command of {@link #buildCommandSetAcceleration(byte, short)} into a buffer.
+	 * 
+	 * @return the number of bytes written, {@link #getSetSpeedCommandLength()}
+	 */
+	public int encodeSetAcceleration(byte pin, short acceleration, byte[] dest, int offset) {
+		// Write bytes according to Pololu User's Guide to set acceleration using Pololu protocol
+		return encodeChannelValue(SET_ACCELERATION_COMMAND, pin, acceleration, dest, offset);
+	}
+
+	/**
+	 * @return the number of bytes in a Set Speed or Set Acceleration command
+	 */
+	public int getSetSpeedCommandLength() {
+		return SET_SPEED_COMMAND_LENGTH;
+	}
+
+	/**
+	 * @param fromPosition
+	 *            position in the range [0, 254] the servo starts at
+	 * @param toPosition
+	 *            position in the range [0, 254] the servo moves to
+	 * @param millis
+	 *            time the move should take
+	 * @return the lowest speed for {@link #buildCommandSetSpeed(byte, short)} that completes the move in time, 0 if
+	 *         the servo does not move
+	 */
+	public static int getSpeedForMove(int fromPosition, int toPosition, int millis) {
+		int distance = Math.abs(positionToQuarterMicros(toPosition) - positionToQuarterMicros(fromPosition));
+		if (distance == 0)
+			return 0;
+		// Speed is in quarter-microseconds per 10 ms; round up so the servo is never late
+		return Math.min(MAX_SPEED, Math.max(1, (distance * 10 + millis - 1) / Math.max(1, millis)));
+	}
+
+	/**
+	 * @param speed
+	 *            speed from {@link #getSpeedForMove(int, int, int)}
+	 * @param rampMillis
+	 *            time in which the servo should reach that speed from rest
+	 * @return the acceleration for {@link #buildCommandSetAcceleration(byte, short)} that reaches the speed in time, 0
+	 *         for no limit
+	 */
+	public static int getAccelerationForRamp(int speed, int rampMillis) {
+		if (speed == 0 || rampMillis <= 0)
+			return 0;
+		// Acceleration is in speed units per 80 ms
+		return Math.min(MAX_ACCELERATION, Math.max(1, (speed * 80 + rampMillis - 1) / rampMillis));
 	}
 
 	public byte[] buildCommandGetPosition(byte pin) {
@@ -17,4 +17,12 @@ public class MicroMaestro extends Maestro {
 
 	}
 
+	/**
+	 * The Micro Maestro does not implement Set Multiple Targets
+	 */
+	@Override
+	public boolean supportsMultipleTargets() {
+		return false;
+	}
+
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package jmcc;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import jacs.demos.PololuSweepTester;
 import jacs.player.AnimatronicsShowPlayer;
 
@@ -14,7 +17,12 @@ import jacs.player.AnimatronicsShowPlayer;
  * <p>
  * {@code Microcontroller mc = new Microcontroller (Microcontroller.POLOLU_MICRO_MAESTRO); }
  * <p>
- * Only Mini-SSC commands are supported at this time. Native commands are for future implementation.
+ * Mini-SSC is the default protocol. Set the protocol to {@link #NATIVE} to use the card's own command set where one
+ * is implemented, e.g. the Pololu protocol for Maestro cards.
+ * <p>
+ * Every command can be built as a new array, or encoded into a buffer the caller keeps, which is what the player does
+ * so that playing a show allocates nothing per command. Each encode method returns the number of bytes written. A
+ * card only implements the encode methods; the build methods are wrappers around them.
  * <p>
  * 
  * 
@@ -25,18 +33,31 @@ public abstract class Microcontroller {
 
 	// Support protocols for serial communications
 	public static String MINI_SSC = "Mini-SSC";
+	public static String NATIVE = "Native"; // The card's own protocol, e.g. Pololu compact protocol
 
 	// Supported boards
 	public static String GENERIC_MINI_SSC_DEVICE = "Generic MiniSSC Device";
 
 	public static String POLOLU_MAESTRO = "Pololu Maestro"; // Generic pololu board
 	public static String POLOLU_MICRO_MAESTRO = "Pololu Micro Maestro"; // Micro Maestro 6-channel servo controller
+	public static String POLOLU_MINI_MAESTRO_12 = "Pololu Mini Maestro 12"; // Mini Maestro 12-channel servo controller
+	public static String POLOLU_MINI_MAESTRO_18 = "Pololu Mini Maestro 18"; // Mini Maestro 18-channel servo controller
+	public static String POLOLU_MINI_MAESTRO_24 = "Pololu Mini Maestro 24"; // Mini Maestro 24-channel servo controller
 
 	// Note - Arduino must be running Servo Controller simulator code to receive Mini-SSC commands for pins 2..13
 	public static String ARDUINO = "Arduino"; // Generic
 	public static String ARDUINO_UNO = "Arduino Uno"; // Arduino UNO
 
 	protected static final byte MINI_SSC_SET_TARGET_COMMAND = (byte) 0xFF; // Move to superclass Microcontroller
+	protected static final int MINI_SSC_SET_TARGET_COMMAND_LENGTH = 3;
+
+	// Room for one set target command in any protocol, for encoding into buffers without a backing array
+	private static final ThreadLocal<byte[]> COMMAND_SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[16];
+		}
+	};
 
 	private String microcontrollerName = ""; // e.g. "Pololu Micro Maestro" or "Arduino Uno"
 	private String defaultProtocol = MINI_SSC;
@@ -83,27 +104,102 @@ public abstract class Microcontroller {
 	 * @return
 	 */
 	public byte[] buildSetTargetCommand(byte pin, byte position) {
+		byte[] setTargetCmd = new byte[getSetTargetCommandLength()];
+		encodeSetTarget(pin, position, setTargetCmd, 0);
+		return setTargetCmd;
+	}
 
+	/**
+	 * Encodes the command of {@link #buildSetTargetCommand(byte, byte)} into a buffer, in the current protocol.
+	 * 
+	 * @param pin
+	 *            pin on the controller to which the servo is physically attached
+	 * @param position
+	 *            a value in the range [0, 254]
+	 * @param dest
+	 *            buffer to write the command into
+	 * @param offset
+	 *            index in dest of the first byte of the command
+	 * @return the number of bytes written, {@link #getSetTargetCommandLength()}
+	 */
+	public int encodeSetTarget(byte pin, byte position, byte[] dest, int offset) {
 		if (defaultProtocol.equals(MINI_SSC))
-			return buildCommandSetTargetMiniSSC(pin, position);
+			return encodeSetTargetMiniSSC(pin, position, dest, offset);
 		else
-			// For native protocols
-			return buildCommandSetTargetNative(pin, position);
+			// For native protocols. Positions are unsigned, so keep 128-254 from sign extending
+			return encodeSetTargetNative(pin, (short) (position & 0xFF), dest, offset);
 	}
 
+	/**
+	 * Encodes the command of {@link #buildSetTargetCommand(byte, byte)} at the position of a buffer, and moves the
+	 * position past it.
+	 * 
+	 * @param pin
+	 *            pin on the controller to which the servo is physically attached
+	 * @param position
+	 *            a value in the range [0, 254]
+	 * @param dest
+	 *            buffer to write the command into
+	 * @return the number of bytes written, {@link #getSetTargetCommandLength()}
+	 * @throws BufferOverflowException
+	 *             if the buffer has less room left than the command
+	 */
+	public int encodeSetTarget(byte pin, byte position, ByteBuffer dest) {
+		int length = getSetTargetCommandLength();
+		if (dest.remaining() < length)
+			throw new BufferOverflowException();
+		if (dest.hasArray()) {
+			encodeSetTarget(pin, position, dest.array(), dest.arrayOffset() + dest.position());
+			dest.position(dest.position() + length);
+		} else {
+			// Buffers without an array, such as direct ones, get the command through scratch space kept per thread
+			byte[] scratch = COMMAND_SCRATCH.get();
+			encodeSetTarget(pin, position, scratch, 0);
+			dest.put(scratch, 0, length);
+		}
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes in each command returned by {@link #buildSetTargetCommand(byte, byte)} for the
+	 *         current protocol. Used to size buffers that hold several commands.
+	 */
+	public int getSetTargetCommandLength() {
+		if (defaultProtocol.equals(MINI_SSC))
+			return MINI_SSC_SET_TARGET_COMMAND_LENGTH;
+		else
+			return getSetTargetNativeCommandLength();
+	}
+
+	/**
+	 * @return the number of bytes in each command returned by {@link #buildCommandSetTargetNative(byte, short)}
+	 */
+	public abstract int getSetTargetNativeCommandLength();
+
 	/**
 	 * @param pin
 	 * @param target
 	 * @return
 	 */
 	public byte[] buildCommandSetTargetMiniSSC(byte pin, byte target) {
-
-		// Create byte array according to Pololu User's Guide to set target using MiniSSC protocol
-
-		byte[] setTargetMiniSSCCmd = { MINI_SSC_SET_TARGET_COMMAND, (byte) pin, (byte) target };
+		byte[] setTargetMiniSSCCmd = new byte[MINI_SSC_SET_TARGET_COMMAND_LENGTH];
+		encodeSetTargetMiniSSC(pin, target, setTargetMiniSSCCmd, 0);
 		return setTargetMiniSSCCmd;
 	}
 
+	/**
+	 * Encodes the command of {@link #buildCommandSetTargetMiniSSC(byte, byte)} into a buffer.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public int encodeSetTargetMiniSSC(byte pin, byte target, byte[] dest, int offset) {
+		// Write bytes according to Pololu User's Guide to set target using MiniSSC protocol
+		dest[offset] = MINI_SSC_SET_TARGET_COMMAND;
+		dest[offset + 1] = pin;
+		dest[offset + 2] = target;
+		return MINI_SSC_SET_TARGET_COMMAND_LENGTH;
+	}
+
 	/**
 	 * This builds native protocol command to set target servo Currently not implemented
 	 * 
@@ -111,7 +207,19 @@ public abstract class Microcontroller {
 	 * @param target
 	 * @return
 	 */
-	public abstract byte[] buildCommandSetTargetNative(byte pin, short target);
+	public byte[] buildCommandSetTargetNative(byte pin, short target) {
+		byte[] setTargetCmd = new byte[getSetTargetNativeCommandLength()];
+		encodeSetTargetNative(pin, target, setTargetCmd, 0);
+		return setTargetCmd;
+	}
+
+	/**
+	 * Encodes the command of {@link #buildCommandSetTargetNative(byte, short)} into a buffer. Each card implements
+	 * its own protocol here.
+	 * 
+	 * @return the number of bytes written, {@link #getSetTargetNativeCommandLength()}
+	 */
+	public abstract int encodeSetTargetNative(byte pin, short target, byte[] dest, int offset);
 
 	// Write versions of the same command for different method signatures for convenience.
 	// They should convert to proper data type and call the above routines as the base so if
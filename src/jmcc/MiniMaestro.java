@@ -0,0 +1,21 @@
+package jmcc;
+
+public class MiniMaestro extends Maestro {
+
+	/**
+	 * @param product
+	 *            one of the Mini Maestro names in {@link Microcontroller}
+	 * @param numberPins
+	 *            12, 18 or 24 channels depending on the model
+	 */
+	public MiniMaestro(String product, int numberPins) {
+		super(product, numberPins);
+	}
+
+	public void initializePinInfo(int numberPins) {
+		super.initializePinInfo(numberPins);
+		for (int i = 0; i < numberPins; i++)
+			setPin(i, new PinInfo());
+	}
+
+}